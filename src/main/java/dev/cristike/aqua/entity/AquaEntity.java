@@ -22,17 +22,26 @@
 
 package dev.cristike.aqua.entity;
 
+import org.bukkit.Bukkit;
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
+import org.bukkit.util.BoundingBox;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * A class that contains abstractions for various tasks targeting entities.
+ * The methods that take an output collection or a visitor do not allocate
+ * anything besides the collection returned by the world query.
  * */
 public class AquaEntity {
 
@@ -56,6 +65,8 @@ public class AquaEntity {
     /**
      * Gets the entities that are around the target location
      * in the given radius.
+     * If the {@link AquaQueryCache} is enabled, the identical queries of a tick
+     * share one result and the list is read-only.
      *
      * @param location the location
      * @param radius the radius
@@ -64,12 +75,76 @@ public class AquaEntity {
      * */
     @NotNull
     public static List<Entity> getNearbyEntities(@NotNull Location location, double radius) {
-        List<Entity> entities = new ArrayList<>();
+        return AquaQueryCache.get(location, radius, Entity.class,
+                () -> getNearbyEntities(location, radius, new ArrayList<>()));
+    }
+
+    /**
+     * Adds the entities that are around the target location
+     * in the given radius to the given collection. An entity is around the location
+     * if its bounding box overlaps the box of the given radius around it.
+     * If the world has an {@link AquaSpatialIndex}, the index is queried instead of the world.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param output the collection to which the entities are added
+     * @param <C> the type of the collection
+     *
+     * @return the given collection
+     * */
+    @NotNull
+    public static <C extends Collection<? super Entity>> C getNearbyEntities(@NotNull Location location,
+                                                                             double radius,
+                                                                             @NotNull C output) {
+        if (location.getWorld() == null) return output;
 
-        if (location.getWorld() != null)
-            entities.addAll(location.getWorld().getNearbyEntities(location, radius, radius, radius));
+        AquaSpatialIndex index = AquaSpatialIndex.find(location.getWorld());
+        if (index != null) return index.getNearbyEntities(location, radius, target -> true, output);
 
-        return entities;
+        output.addAll(location.getWorld().getNearbyEntities(location, radius, radius, radius));
+        return output;
+    }
+
+    /**
+     * Gets the entities that are around each of the given locations
+     * in the given radius, answering all the locations in one pass.
+     * Unlike the single queries, an entity is around a location if its
+     * position is inside the box of the given radius around it.
+     *
+     * @param locations the locations
+     * @param radius the radius
+     *
+     * @return a list with the entities around each location, in the order of the locations
+     * */
+    @NotNull
+    public static List<List<Entity>> getNearbyEntities(@NotNull List<Location> locations, double radius) {
+        double[] radii = new double[locations.size()];
+        Arrays.fill(radii, radius);
+
+        return AquaProximityBatch.query(locations, radii, target -> true, false);
+    }
+
+    /**
+     * Gets the entities that are around each of the given locations in their radius
+     * and that meet the given condition, answering all the locations in one pass.
+     * Unlike the single queries, an entity is around a location if its
+     * position is inside the box of its radius around it.
+     * The condition is tested on the calling thread. When parallel, the locations of
+     * different worlds are matched against their entities on the common fork-join pool.
+     *
+     * @param locations the locations
+     * @param radii the radius of each location
+     * @param filter the condition
+     * @param parallel whether to match the worlds in parallel
+     *
+     * @return a list with the entities around each location, in the order of the locations
+     * */
+    @NotNull
+    public static List<List<Entity>> getNearbyEntities(@NotNull List<Location> locations,
+                                                       double @NotNull [] radii,
+                                                       @NotNull Predicate<Entity> filter,
+                                                       boolean parallel) {
+        return AquaProximityBatch.query(locations, radii, filter, parallel);
     }
 
     /**
@@ -83,20 +158,50 @@ public class AquaEntity {
      * */
     @NotNull
     public static List<Player> getNearbyPlayers(@NotNull Entity entity, double radius) {
-        List<Entity> entities = getNearbyEntities(entity, radius);
-        List<Player> players = new ArrayList<>();
+        return getNearbyPlayers(entity, radius, new ArrayList<>());
+    }
 
-        entities.forEach(target -> {
-            if (!(target instanceof Player player)) return;
-            players.add(player);
-        });
+    /**
+     * Adds the players that are around the target entity
+     * in the given radius to the given collection. A player is around the entity
+     * if its bounding box overlaps the bounding box of the entity grown by the radius.
+     * When there are fewer players online than entities expected around the entity,
+     * only the players are checked.
+     *
+     * @param entity the entity
+     * @param radius the radius
+     * @param output the collection to which the players are added
+     * @param <C> the type of the collection
+     *
+     * @return the given collection
+     * */
+    @NotNull
+    public static <C extends Collection<? super Player>> C getNearbyPlayers(@NotNull Entity entity,
+                                                                            double radius,
+                                                                            @NotNull C output) {
+        if (entity instanceof Player player) output.add(player);
+
+        World world = entity.getWorld();
+        if (AquaProximity.fewerPlayers(world, entity.getLocation(), radius, radius)) {
+            BoundingBox box = entity.getBoundingBox().expand(radius);
 
-        return players;
+            for (Player player : Bukkit.getOnlinePlayers())
+                if (player != entity && player.getWorld() == world && player.getBoundingBox().overlaps(box)) output.add(player);
+
+            return output;
+        }
+
+        for (Entity target : entity.getNearbyEntities(radius, radius, radius))
+            if (target instanceof Player player) output.add(player);
+
+        return output;
     }
 
     /**
      * Gets the players that are around the target location
      * in the given radius.
+     * If the {@link AquaQueryCache} is enabled, the identical queries of a tick
+     * share one result and the list is read-only.
      *
      * @param location the location
      * @param radius the radius
@@ -105,15 +210,57 @@ public class AquaEntity {
      * */
     @NotNull
     public static List<Player> getNearbyPlayers(@NotNull Location location, double radius) {
-        List<Entity> entities = getNearbyEntities(location, radius);
-        List<Player> players = new ArrayList<>();
+        return AquaQueryCache.get(location, radius, Player.class,
+                () -> getNearbyPlayers(location, radius, new ArrayList<>()));
+    }
 
-        entities.forEach(target -> {
-            if (!(target instanceof Player player)) return;
-            players.add(player);
-        });
+    /**
+     * Adds the players that are around the target location
+     * in the given radius to the given collection. A player is around the location
+     * if its bounding box overlaps the box of the given radius around it.
+     * If the world has an {@link AquaSpatialIndex}, the index is queried instead of the world,
+     * and otherwise, when there are fewer players online than entities expected around
+     * the location, only the players are checked.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param output the collection to which the players are added
+     * @param <C> the type of the collection
+     *
+     * @return the given collection
+     * */
+    @NotNull
+    public static <C extends Collection<? super Player>> C getNearbyPlayers(@NotNull Location location,
+                                                                            double radius,
+                                                                            @NotNull C output) {
+        World world = location.getWorld();
+        if (world == null) return output;
+
+        double x = location.getX(), y = location.getY(), z = location.getZ();
+        AquaSpatialIndex index = AquaSpatialIndex.find(world);
+        if (index != null) {
+            index.visitOverlapping(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius,
+                    (target, targetX, targetY, targetZ) -> {
+                        if (target instanceof Player player) output.add(player);
+                    });
+
+            return output;
+        }
+
+        if (AquaProximity.fewerPlayers(world, location, radius, radius)) {
+            BoundingBox box = new BoundingBox(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius);
 
-        return players;
+            for (Player player : Bukkit.getOnlinePlayers())
+                if (player.getWorld() == world && player.getBoundingBox().overlaps(box)) output.add(player);
+
+            return output;
+        }
+
+        for (Entity target : world.getNearbyEntities(location, radius, radius, radius,
+                target -> target instanceof Player))
+            output.add((Player) target);
+
+        return output;
     }
 
     /**
@@ -127,7 +274,10 @@ public class AquaEntity {
     public static void forEachNearbyEntity(@NotNull Entity entity,
                                            double radius,
                                            @NotNull Consumer<Entity> consumer) {
-        getNearbyEntities(entity, radius).forEach(consumer);
+        for (Entity target : entity.getNearbyEntities(radius, radius, radius))
+            consumer.accept(target);
+
+        consumer.accept(entity);
     }
 
     /**
@@ -141,6 +291,212 @@ public class AquaEntity {
     public static void forEachNearbyPlayer(@NotNull Entity entity,
                                            double radius,
                                            @NotNull Consumer<Player> consumer) {
-        getNearbyPlayers(entity, radius).forEach(consumer);
+        if (entity instanceof Player player) consumer.accept(player);
+
+        for (Entity target : entity.getNearbyEntities(radius, radius, radius))
+            if (target instanceof Player player) consumer.accept(player);
+    }
+
+    /**
+     * Visits the entities that are around the target entity in the given radius,
+     * until the given visitor returns false.
+     *
+     * @param entity the entity
+     * @param radius the radius
+     * @param visitor the visitor, which returns whether to continue or not
+     *
+     * @return whether all the entities were visited or not
+     * */
+    public static boolean visitNearbyEntities(@NotNull Entity entity,
+                                              double radius,
+                                              @NotNull Predicate<Entity> visitor) {
+        for (Entity target : entity.getNearbyEntities(radius, radius, radius))
+            if (!visitor.test(target)) return false;
+
+        return visitor.test(entity);
+    }
+
+    /**
+     * Visits the players that are around the target entity in the given radius,
+     * until the given visitor returns false.
+     *
+     * @param entity the entity
+     * @param radius the radius
+     * @param visitor the visitor, which returns whether to continue or not
+     *
+     * @return whether all the players were visited or not
+     * */
+    public static boolean visitNearbyPlayers(@NotNull Entity entity,
+                                             double radius,
+                                             @NotNull Predicate<Player> visitor) {
+        if (entity instanceof Player player && !visitor.test(player)) return false;
+
+        for (Entity target : entity.getNearbyEntities(radius, radius, radius))
+            if (target instanceof Player player && !visitor.test(player)) return false;
+
+        return true;
+    }
+
+    /**
+     * Gets the entities that are inside the sphere with the given radius
+     * around the target location.
+     *
+     * @param location the location
+     * @param radius the radius
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    public static List<Entity> getEntitiesInSphere(@NotNull Location location, double radius) {
+        return AquaProximity.query(location, AquaProximity.Shape.SPHERE, radius, 0, Entity.class, target -> true, false);
+    }
+
+    /**
+     * Gets the entities that are inside the sphere with the given radius
+     * around the target location and that meet the given condition.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param filter the condition
+     * @param sorted whether to sort the entities from the closest to the farthest
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    public static List<Entity> getEntitiesInSphere(@NotNull Location location,
+                                                   double radius,
+                                                   @NotNull Predicate<Entity> filter,
+                                                   boolean sorted) {
+        return AquaProximity.query(location, AquaProximity.Shape.SPHERE, radius, 0, Entity.class, filter, sorted);
+    }
+
+    /**
+     * Gets the entities that are inside the vertical cylinder with the given radius
+     * around the target location. The cylinder extends the given amount of blocks
+     * both above and below the location.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param halfHeight the half of the height of the cylinder
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    public static List<Entity> getEntitiesInCylinder(@NotNull Location location, double radius, double halfHeight) {
+        return AquaProximity.query(location, AquaProximity.Shape.CYLINDER, radius, Math.max(halfHeight, 0),
+                Entity.class, target -> true, false);
+    }
+
+    /**
+     * Gets the entities that are inside the vertical cylinder with the given radius
+     * around the target location and that meet the given condition. The cylinder
+     * extends the given amount of blocks both above and below the location.
+     * When sorted, the entities are ordered by their horizontal distance.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param halfHeight the half of the height of the cylinder
+     * @param filter the condition
+     * @param sorted whether to sort the entities from the closest to the farthest
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    public static List<Entity> getEntitiesInCylinder(@NotNull Location location,
+                                                     double radius,
+                                                     double halfHeight,
+                                                     @NotNull Predicate<Entity> filter,
+                                                     boolean sorted) {
+        return AquaProximity.query(location, AquaProximity.Shape.CYLINDER, radius, Math.max(halfHeight, 0),
+                Entity.class, filter, sorted);
+    }
+
+    /**
+     * Gets the players that are inside the sphere with the given radius
+     * around the target location. When there are fewer players online than
+     * entities expected in the sphere, only the players are checked.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param sorted whether to sort the players from the closest to the farthest
+     *
+     * @return a list of players that may be empty
+     * */
+    @NotNull
+    public static List<Player> getPlayersInSphere(@NotNull Location location, double radius, boolean sorted) {
+        return AquaProximity.queryPlayers(location, AquaProximity.Shape.SPHERE, radius, 0, sorted);
+    }
+
+    /**
+     * Gets the closest entities to the target location.
+     *
+     * @param location the location
+     * @param limit the maximum amount of entities
+     *
+     * @return a list of entities from the closest to the farthest, that may be empty
+     * */
+    @NotNull
+    public static List<Entity> getNearestEntities(@NotNull Location location, int limit) {
+        return AquaNearest.query(location, limit, Double.POSITIVE_INFINITY, Entity.class, target -> true);
+    }
+
+    /**
+     * Gets the closest entities of the given type to the target location
+     * that are within the given radius and that meet the given condition.
+     * The cost depends on the amount of entities requested, not on how many
+     * entities there are within the radius.
+     *
+     * @param location the location
+     * @param limit the maximum amount of entities
+     * @param maxRadius the maximum distance of the entities
+     * @param type the type of the entities
+     * @param filter the condition
+     * @param <T> the type of the entities
+     *
+     * @return a list of entities from the closest to the farthest, that may be empty
+     * */
+    @NotNull
+    public static <T extends Entity> List<T> getNearestEntities(@NotNull Location location,
+                                                                int limit,
+                                                                double maxRadius,
+                                                                @NotNull Class<T> type,
+                                                                @NotNull Predicate<? super T> filter) {
+        return AquaNearest.query(location, limit, maxRadius, type, filter);
+    }
+
+    /**
+     * Gets the closest entity of the given type to the target location
+     * that is within the given radius and that meets the given condition.
+     *
+     * @param location the location
+     * @param maxRadius the maximum distance of the entity
+     * @param type the type of the entity
+     * @param filter the condition
+     * @param <T> the type of the entity
+     *
+     * @return an optional containing the entity if there is one
+     * */
+    @NotNull
+    public static <T extends Entity> Optional<T> getNearestEntity(@NotNull Location location,
+                                                                  double maxRadius,
+                                                                  @NotNull Class<T> type,
+                                                                  @NotNull Predicate<? super T> filter) {
+        List<T> entities = AquaNearest.query(location, 1, maxRadius, type, filter);
+        return entities.isEmpty() ? Optional.empty() : Optional.of(entities.get(0));
+    }
+
+    /**
+     * Gets the closest players to the target location
+     * that are within the given radius.
+     *
+     * @param location the location
+     * @param limit the maximum amount of players
+     * @param maxRadius the maximum distance of the players
+     *
+     * @return a list of players from the closest to the farthest, that may be empty
+     * */
+    @NotNull
+    public static List<Player> getNearestPlayers(@NotNull Location location, int limit, double maxRadius) {
+        return AquaNearest.query(location, limit, maxRadius, Player.class, target -> true);
     }
 }
@@ -0,0 +1,471 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.entity;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.scheduler.AquaFuture;
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * An immutable copy of the identities, types, worlds and positions of the entities
+ * of some worlds, stored as arrays of primitives. The entities are addressed by their
+ * index in the snapshot, and are ordered by the column of 16 blocks they are in.
+ * The snapshot is taken on the main thread, but it may be read and queried from any
+ * thread, so that heavy computations can run on async workers and have their results
+ * applied back through the {@link AquaScheduler}.
+ * */
+public final class AquaEntitySnapshot {
+    private static final double CELL_SIZE = 16;
+
+    private static final Map<UUID, World> captured = new LinkedHashMap<>();
+    private static final Listener listener = new SnapshotListener();
+    private static boolean registered;
+    private static BukkitTask driver;
+    private static volatile AquaEntitySnapshot latest;
+
+    private final long time;
+    private final UUID[] worldIds;
+    private final List<Map<Long, int[]>> columns;
+
+    private final int size;
+    private final int[] ids;
+    private final long[] mostSignificantBits;
+    private final long[] leastSignificantBits;
+    private final EntityType[] types;
+    private final int[] worlds;
+    private final double[] x, y, z;
+
+    private AquaEntitySnapshot(@NotNull List<World> worlds) {
+        List<List<Entity>> entities = new ArrayList<>(worlds.size());
+        int size = 0;
+
+        for (World world : worlds) {
+            List<Entity> list = world.getEntities();
+            entities.add(list);
+            size += list.size();
+        }
+
+        this.time = System.currentTimeMillis();
+        this.worldIds = new UUID[worlds.size()];
+        this.columns = new ArrayList<>(worlds.size());
+        this.size = size;
+        this.ids = new int[size];
+        this.mostSignificantBits = new long[size];
+        this.leastSignificantBits = new long[size];
+        this.types = new EntityType[size];
+        this.worlds = new int[size];
+        this.x = new double[size];
+        this.y = new double[size];
+        this.z = new double[size];
+
+        int offset = 0;
+        for (int world = 0; world < worlds.size(); world++) {
+            worldIds[world] = worlds.get(world).getUID();
+            columns.add(fill(worlds.get(world), world, entities.get(world), offset));
+            offset += entities.get(world).size();
+        }
+    }
+
+    /*
+     * Copies the entities of a world in the given slots, grouped by their column,
+     * and returns the slots of each column.
+     * */
+    @NotNull
+    private Map<Long, int[]> fill(@NotNull World world, int worldIndex, @NotNull List<Entity> entities, int offset) {
+        Location scratch = new Location(world, 0, 0, 0);
+        double[] positions = new double[entities.size() * 3];
+        long[] keys = new long[entities.size()];
+        Map<Long, int[]> columns = new HashMap<>();
+
+        for (int i = 0; i < entities.size(); i++) {
+            entities.get(i).getLocation(scratch);
+            positions[i * 3] = scratch.getX();
+            positions[i * 3 + 1] = scratch.getY();
+            positions[i * 3 + 2] = scratch.getZ();
+
+            keys[i] = key(cell(scratch.getX()), cell(scratch.getZ()));
+            columns.computeIfAbsent(keys[i], key -> new int[2])[1]++;
+        }
+
+        /* Each column gets the range of slots after the previous one, and is filled from its start. */
+        int start = offset;
+        for (int[] column : columns.values()) {
+            column[0] = start;
+            start += column[1];
+            column[1] = column[0];
+        }
+
+        for (int i = 0; i < entities.size(); i++) {
+            Entity entity = entities.get(i);
+            int slot = columns.get(keys[i])[1]++;
+
+            ids[slot] = entity.getEntityId();
+            mostSignificantBits[slot] = entity.getUniqueId().getMostSignificantBits();
+            leastSignificantBits[slot] = entity.getUniqueId().getLeastSignificantBits();
+            types[slot] = entity.getType();
+            worlds[slot] = worldIndex;
+            x[slot] = positions[i * 3];
+            y[slot] = positions[i * 3 + 1];
+            z[slot] = positions[i * 3 + 2];
+        }
+
+        return columns;
+    }
+
+    /**
+     * Takes a snapshot of the entities of all the worlds.
+     * This method must be called on the main thread.
+     *
+     * @return the snapshot
+     * */
+    @NotNull
+    public static AquaEntitySnapshot capture() {
+        return new AquaEntitySnapshot(Bukkit.getWorlds());
+    }
+
+    /**
+     * Takes a snapshot of the entities of the given worlds.
+     * This method must be called on the main thread.
+     *
+     * @param worlds the worlds
+     *
+     * @return the snapshot
+     * */
+    @NotNull
+    public static AquaEntitySnapshot capture(@NotNull Collection<World> worlds) {
+        return new AquaEntitySnapshot(new ArrayList<>(worlds));
+    }
+
+    /**
+     * Starts taking a snapshot of the given world at the start of every tick,
+     * together with the other enabled worlds. The last one is available
+     * through {@link #getLatest()}. The world is disabled when it unloads.
+     *
+     * @param world the world
+     * */
+    public static void enable(@NotNull World world) {
+        if (!registered) {
+            Bukkit.getPluginManager().registerEvents(listener, AquaPlugin.getPlugin());
+            registered = true;
+        }
+
+        captured.put(world.getUID(), world);
+        latest = new AquaEntitySnapshot(new ArrayList<>(captured.values()));
+
+        if (driver == null)
+            driver = AquaScheduler.runTaskTimer(() -> latest = new AquaEntitySnapshot(new ArrayList<>(captured.values())), 1, 1);
+    }
+
+    /**
+     * Stops taking snapshots of the given world.
+     *
+     * @param world the world
+     * */
+    public static void disable(@NotNull World world) {
+        if (captured.remove(world.getUID()) == null) return;
+
+        if (captured.isEmpty()) {
+            if (driver != null) driver.cancel();
+
+            driver = null;
+            latest = null;
+        } else {
+            latest = new AquaEntitySnapshot(new ArrayList<>(captured.values()));
+        }
+    }
+
+    /**
+     * Gets the last snapshot taken of the enabled worlds.
+     * This method may be called from any thread.
+     *
+     * @return an optional that may contain the snapshot, if any world is enabled
+     * */
+    @NotNull
+    public static Optional<AquaEntitySnapshot> getLatest() {
+        return Optional.ofNullable(latest);
+    }
+
+    /**
+     * Runs the given computation against this snapshot on an async worker.
+     * The result may be applied back on the main thread through
+     * {@link AquaFuture#acceptSync(java.util.function.Consumer)}.
+     *
+     * @param computation the computation
+     * @param <R> the type of the result
+     *
+     * @return a future that is completed with the result
+     * */
+    @NotNull
+    public <R> AquaFuture<R> compute(@NotNull Function<AquaEntitySnapshot, R> computation) {
+        return AquaScheduler.supplyAsync(() -> computation.apply(this));
+    }
+
+    /**
+     * Gets the time at which the snapshot was taken.
+     *
+     * @return the time in milliseconds since the epoch
+     * */
+    public long getTime() { return time; }
+
+    /**
+     * Gets the amount of entities in the snapshot.
+     *
+     * @return the amount of entities
+     * */
+    public int size() { return size; }
+
+    /**
+     * Gets the id of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the entity id
+     * */
+    public int getEntityId(int index) { return ids[index]; }
+
+    /**
+     * Gets the unique id of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the unique id
+     * */
+    @NotNull
+    public UUID getUniqueId(int index) {
+        return new UUID(mostSignificantBits[index], leastSignificantBits[index]);
+    }
+
+    /**
+     * Gets the type of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the type
+     * */
+    @NotNull
+    public EntityType getType(int index) { return types[index]; }
+
+    /**
+     * Gets the unique id of the world of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the unique id of the world
+     * */
+    @NotNull
+    public UUID getWorld(int index) { return worldIds[worlds[index]]; }
+
+    /**
+     * Gets the X coordinate of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the X coordinate
+     * */
+    public double getX(int index) { return x[index]; }
+
+    /**
+     * Gets the Y coordinate of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the Y coordinate
+     * */
+    public double getY(int index) { return y[index]; }
+
+    /**
+     * Gets the Z coordinate of the entity at the given index.
+     *
+     * @param index the index
+     *
+     * @return the Z coordinate
+     * */
+    public double getZ(int index) { return z[index]; }
+
+    /**
+     * Gets the live entity at the given index, if it still exists.
+     * This method must be called on the main thread.
+     *
+     * @param index the index
+     *
+     * @return the entity, or null if it no longer exists
+     * */
+    @Nullable
+    public Entity getEntity(int index) {
+        return Bukkit.getEntity(getUniqueId(index));
+    }
+
+    /**
+     * Gets the indexes of the entities of the given world that are inside the box
+     * with the given radius around the given position and that meet the given condition.
+     * This method may be called from any thread.
+     *
+     * @param world the unique id of the world
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param radius the radius
+     * @param filter the condition, tested on the indexes
+     *
+     * @return the indexes of the entities
+     * */
+    public int @NotNull [] getNearby(@NotNull UUID world,
+                                     double x, double y, double z,
+                                     double radius,
+                                     @NotNull IntPredicate filter) {
+        return query(world, x, y, z, radius, false, filter);
+    }
+
+    /**
+     * Gets the indexes of the entities of the given world that are inside the sphere
+     * with the given radius around the given position and that meet the given condition.
+     * This method may be called from any thread.
+     *
+     * @param world the unique id of the world
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     * @param radius the radius
+     * @param filter the condition, tested on the indexes
+     *
+     * @return the indexes of the entities
+     * */
+    public int @NotNull [] getInSphere(@NotNull UUID world,
+                                       double x, double y, double z,
+                                       double radius,
+                                       @NotNull IntPredicate filter) {
+        return query(world, x, y, z, radius, true, filter);
+    }
+
+    private int @NotNull [] query(@NotNull UUID world,
+                                  double x, double y, double z,
+                                  double radius,
+                                  boolean sphere,
+                                  @NotNull IntPredicate filter) {
+        int worldIndex = Arrays.asList(worldIds).indexOf(world);
+        if (worldIndex < 0 || radius < 0) return new int[0];
+
+        Map<Long, int[]> columns = this.columns.get(worldIndex);
+        int minCellX = cell(x - radius), maxCellX = cell(x + radius);
+        int minCellZ = cell(z - radius), maxCellZ = cell(z + radius);
+
+        Matches matches = new Matches(x, y, z, radius, sphere, filter);
+
+        /* When the box covers more columns than there are occupied, the occupied ones are scanned instead. */
+        if (((double) maxCellX - minCellX + 1) * ((double) maxCellZ - minCellZ + 1) > columns.size()) {
+            for (int[] column : columns.values())
+                matches.scan(column);
+
+            return matches.result();
+        }
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                int[] column = columns.get(key(cellX, cellZ));
+                if (column != null) matches.scan(column);
+            }
+        }
+
+        return matches.result();
+    }
+
+    /* Collects the indexes of the entities of the scanned columns that are inside the shape. */
+    private final class Matches {
+        private final double x, y, z;
+        private final double radius;
+        private final boolean sphere;
+        private final IntPredicate filter;
+
+        private int[] indexes = new int[16];
+        private int count;
+
+        private Matches(double x, double y, double z, double radius, boolean sphere, @NotNull IntPredicate filter) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.radius = radius;
+            this.sphere = sphere;
+            this.filter = filter;
+        }
+
+        private void scan(int @NotNull [] column) {
+            for (int i = column[0]; i < column[1]; i++) {
+                double dx = AquaEntitySnapshot.this.x[i] - x;
+                double dy = AquaEntitySnapshot.this.y[i] - y;
+                double dz = AquaEntitySnapshot.this.z[i] - z;
+
+                if (sphere ? dx * dx + dy * dy + dz * dz > radius * radius
+                        : Math.abs(dx) > radius || Math.abs(dy) > radius || Math.abs(dz) > radius) continue;
+                if (!filter.test(i)) continue;
+
+                if (count == indexes.length) indexes = Arrays.copyOf(indexes, count * 2);
+                indexes[count++] = i;
+            }
+        }
+
+        private int @NotNull [] result() {
+            return Arrays.copyOf(indexes, count);
+        }
+    }
+
+    private static int cell(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    /* Stops capturing the worlds that unload, so that they are not held or scanned anymore. */
+    private static final class SnapshotListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onWorldUnload(@NotNull WorldUnloadEvent event) {
+            disable(event.getWorld());
+        }
+    }
+
+    private static long key(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.entity;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The nearest neighbour queries behind {@link AquaEntity}. The closest entities
+ * found so far are kept in a bounded max-heap, so that the search stops as soon as
+ * nothing that is left to visit can be closer than the farthest of them.
+ * */
+final class AquaNearest<T extends Entity> implements AquaSpatialIndex.PositionVisitor {
+    private static final double INITIAL_RADIUS = 16;
+    private static final double SWEEP_RADIUS = 128;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final double x, y, z;
+    private final int limit;
+    private final double maxDistanceSquared;
+    private final Class<T> type;
+    private final Predicate<? super T> filter;
+
+    private Entity[] entities;
+    private double[] distances;
+    private int size;
+
+    private AquaNearest(@NotNull Location center,
+                        int limit,
+                        double maxRadius,
+                        @NotNull Class<T> type,
+                        @NotNull Predicate<? super T> filter) {
+        this.x = center.getX();
+        this.y = center.getY();
+        this.z = center.getZ();
+        this.limit = limit;
+        this.maxDistanceSquared = maxRadius * maxRadius;
+        this.type = type;
+        this.filter = filter;
+        this.entities = new Entity[Math.min(limit, INITIAL_CAPACITY)];
+        this.distances = new double[entities.length];
+    }
+
+    /**
+     * Gets the closest entities of the given type to the given center.
+     *
+     * @param center the center
+     * @param limit the maximum amount of entities
+     * @param maxRadius the maximum distance, or infinity for none
+     * @param type the type of the entities
+     * @param filter the condition the entities must meet
+     * @param <T> the type of the entities
+     *
+     * @return a list of entities from the closest to the farthest, that may be empty
+     * */
+    @NotNull
+    static <T extends Entity> List<T> query(@NotNull Location center,
+                                            int limit,
+                                            double maxRadius,
+                                            @NotNull Class<T> type,
+                                            @NotNull Predicate<? super T> filter) {
+        World world = center.getWorld();
+        if (world == null || limit <= 0 || maxRadius < 0) return new ArrayList<>();
+
+        AquaNearest<T> nearest = new AquaNearest<>(center, limit, maxRadius, type, filter);
+        AquaSpatialIndex index = AquaSpatialIndex.find(world);
+
+        if (Player.class.isAssignableFrom(type)) nearest.searchPlayers(world);
+        else if (index != null) nearest.searchIndex(index);
+        else nearest.searchWorld(world, maxRadius);
+
+        return nearest.result();
+    }
+
+    /* Checks the online players of the world, which are fewer than its entities. */
+    private void searchPlayers(@NotNull World world) {
+        Location scratch = new Location(world, 0, 0, 0);
+
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (player.getWorld() != world) continue;
+
+            player.getLocation(scratch);
+            visit(player, scratch.getX(), scratch.getY(), scratch.getZ());
+        }
+    }
+
+    /*
+     * Visits the rings of columns around the center until none of the remaining ones can hold a closer entity.
+     * Once the rings cover more columns than the index holds, the index is visited whole instead.
+     * */
+    private void searchIndex(@NotNull AquaSpatialIndex index) {
+        int columns = index.columns();
+
+        for (int ring = 0, visited = 0; visited < columns; ring++) {
+            double side = ring * 2.0 + 1;
+            if (side * side > columns) {
+                clear();
+                index.visitAll(this);
+                return;
+            }
+
+            visited += index.visitRing(x, z, ring, this);
+
+            double clearance = index.ringClearance(x, z, ring);
+            if (clearance * clearance > bound()) return;
+        }
+    }
+
+    /* Queries growing boxes of the world, falling back to a sweep of the world once they grow too large. */
+    private void searchWorld(@NotNull World world, double maxRadius) {
+        Location center = new Location(world, x, y, z);
+        Location scratch = new Location(world, 0, 0, 0);
+
+        for (double radius = Math.min(INITIAL_RADIUS, maxRadius); ; radius = Math.min(radius * 2, maxRadius)) {
+            if (radius > SWEEP_RADIUS) {
+                clear();
+                for (Entity entity : world.getEntities()) {
+                    entity.getLocation(scratch);
+                    visit(entity, scratch.getX(), scratch.getY(), scratch.getZ());
+                }
+
+                return;
+            }
+
+            clear();
+            world.getNearbyEntities(center, radius, radius, radius, entity -> {
+                entity.getLocation(scratch);
+                visit(entity, scratch.getX(), scratch.getY(), scratch.getZ());
+
+                return false;
+            });
+
+            /* The box holds every entity closer than its radius, so the search may stop if the heap is within it. */
+            if (radius >= maxRadius || (size == limit && distances[0] <= radius * radius)) return;
+        }
+    }
+
+    /* Empties the heap before the entities are visited again. */
+    private void clear() {
+        Arrays.fill(entities, 0, size, null);
+        size = 0;
+    }
+
+    /* Gets the squared distance an entity must be within to enter the heap. */
+    private double bound() {
+        return size == limit ? Math.min(distances[0], maxDistanceSquared) : maxDistanceSquared;
+    }
+
+    @Override
+    public void visit(@NotNull Entity entity, double x, double y, double z) {
+        double dx = x - this.x, dy = y - this.y, dz = z - this.z;
+        double distance = dx * dx + dy * dy + dz * dz;
+
+        if (distance > bound() || (size == limit && distance == distances[0])) return;
+        if (!type.isInstance(entity) || !filter.test(type.cast(entity))) return;
+
+        if (size < limit) {
+            if (size == entities.length) {
+                entities = Arrays.copyOf(entities, Math.min(size * 2, limit));
+                distances = Arrays.copyOf(distances, entities.length);
+            }
+
+            entities[size] = entity;
+            distances[size] = distance;
+            siftUp(size++);
+        } else {
+            entities[0] = entity;
+            distances[0] = distance;
+            siftDown(0);
+        }
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) / 2;
+            if (distances[parent] >= distances[slot]) return;
+
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int largest = slot, left = slot * 2 + 1, right = left + 1;
+
+            if (left < size && distances[left] > distances[largest]) largest = left;
+            if (right < size && distances[right] > distances[largest]) largest = right;
+            if (largest == slot) return;
+
+            swap(slot, largest);
+            slot = largest;
+        }
+    }
+
+    private void swap(int first, int second) {
+        Entity entity = entities[first];
+        entities[first] = entities[second];
+        entities[second] = entity;
+
+        double distance = distances[first];
+        distances[first] = distances[second];
+        distances[second] = distance;
+    }
+
+    @NotNull
+    private List<T> result() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        Arrays.sort(order, (first, second) -> Double.compare(distances[first], distances[second]));
+
+        List<T> result = new ArrayList<>(size);
+        for (int i : order)
+            result.add(type.cast(entities[i]));
+
+        return result;
+    }
+}
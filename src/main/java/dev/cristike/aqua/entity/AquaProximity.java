@@ -0,0 +1,258 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.entity;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * The proximity queries behind {@link AquaEntity}. The candidates are taken
+ * from the {@link AquaSpatialIndex} of the world when there is one, and from
+ * the world otherwise, and are filtered by their position in the same pass.
+ * */
+final class AquaProximity {
+    private static final double DEFAULT_DENSITY = 8;
+    private static final Map<UUID, Double> densities = new HashMap<>();
+
+    private AquaProximity() {}
+
+    /** The shapes of the queries, all of them centered on a location. */
+    enum Shape { BOX, SPHERE, CYLINDER }
+
+    /**
+     * Gets the entities of the given type whose position is inside the given shape.
+     *
+     * @param center the center
+     * @param shape the shape
+     * @param radius the radius of the shape
+     * @param halfHeight the half of the height of a cylinder, ignored by the other shapes
+     * @param type the type of the entities
+     * @param filter the condition the entities must meet
+     * @param sorted whether to sort the entities by their distance to the center
+     * @param <T> the type of the entities
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    static <T extends Entity> List<T> query(@NotNull Location center,
+                                            @NotNull Shape shape,
+                                            double radius,
+                                            double halfHeight,
+                                            @NotNull Class<T> type,
+                                            @NotNull Predicate<? super T> filter,
+                                            boolean sorted) {
+        World world = center.getWorld();
+        if (world == null) return new ArrayList<>();
+
+        Collector<T> collector = new Collector<>(center, shape, radius, halfHeight, type, filter, sorted);
+        double vertical = shape == Shape.CYLINDER ? halfHeight : radius;
+        AquaSpatialIndex index = AquaSpatialIndex.find(world);
+
+        if (index != null) {
+            index.visitBox(center.getX() - radius, center.getY() - vertical, center.getZ() - radius,
+                    center.getX() + radius, center.getY() + vertical, center.getZ() + radius, collector);
+
+            return collector.result();
+        }
+
+        Location scratch = new Location(world, 0, 0, 0);
+        int[] candidates = new int[1];
+
+        world.getNearbyEntities(center, radius, vertical, radius, entity -> {
+            candidates[0]++;
+            entity.getLocation(scratch);
+            collector.visit(entity, scratch.getX(), scratch.getY(), scratch.getZ());
+
+            return false;
+        });
+
+        learnDensity(world, candidates[0], chunks(radius));
+        return collector.result();
+    }
+
+    /**
+     * Gets the players whose position is inside the given shape.
+     * When there are fewer players online than entities expected in the shape,
+     * only the players are checked, so that the other entities are never visited.
+     *
+     * @param center the center
+     * @param shape the shape
+     * @param radius the radius of the shape
+     * @param halfHeight the half of the height of a cylinder, ignored by the other shapes
+     * @param sorted whether to sort the players by their distance to the center
+     *
+     * @return a list of players that may be empty
+     * */
+    @NotNull
+    static List<Player> queryPlayers(@NotNull Location center,
+                                     @NotNull Shape shape,
+                                     double radius,
+                                     double halfHeight,
+                                     boolean sorted) {
+        World world = center.getWorld();
+        if (world == null) return new ArrayList<>();
+
+        if (!fewerPlayers(world, center, radius, shape == Shape.CYLINDER ? halfHeight : radius))
+            return query(center, shape, radius, halfHeight, Player.class, target -> true, sorted);
+
+        Collector<Player> collector = new Collector<>(center, shape, radius, halfHeight, Player.class, target -> true, sorted);
+        Location scratch = new Location(world, 0, 0, 0);
+
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            if (player.getWorld() != world) continue;
+
+            player.getLocation(scratch);
+            collector.visit(player, scratch.getX(), scratch.getY(), scratch.getZ());
+        }
+
+        return collector.result();
+    }
+
+    /* Checks whether there are fewer players online than entities a query of the world would visit. */
+    static boolean fewerPlayers(@NotNull World world, @NotNull Location center, double radius, double vertical) {
+        return Bukkit.getOnlinePlayers().size() <= estimate(world, center, radius, vertical);
+    }
+
+    /* Estimates the amount of entities a query of the world would visit. */
+    static double estimate(@NotNull World world, @NotNull Location center, double radius, double vertical) {
+        AquaSpatialIndex index = AquaSpatialIndex.find(world);
+        if (index != null) return index.count(center.getX() - radius, center.getZ() - radius,
+                center.getX() + radius, center.getZ() + radius);
+
+        return density(world) * chunks(radius);
+    }
+
+    /* Gets the average amount of entities per chunk seen by the queries of the world. */
+    static double density(@NotNull World world) {
+        return densities.getOrDefault(world.getUID(), DEFAULT_DENSITY);
+    }
+
+    /* Keeps a moving average of the entities per chunk seen by the queries of the world. */
+    private static void learnDensity(@NotNull World world, int candidates, double chunks) {
+        if (!Bukkit.isPrimaryThread()) return;
+
+        double density = candidates / chunks;
+        densities.merge(world.getUID(), density, (previous, current) -> previous * 0.9 + current * 0.1);
+    }
+
+    private static double chunks(double radius) {
+        double side = Math.ceil(radius * 2 / 16) + 1;
+        return side * side;
+    }
+
+    /* Keeps the entities inside the shape, with their squared distances if they need sorting. */
+    private static final class Collector<T extends Entity> implements AquaSpatialIndex.PositionVisitor {
+        private final double x, y, z;
+        private final Shape shape;
+        private final double radius;
+        private final double radiusSquared;
+        private final double halfHeight;
+        private final Class<T> type;
+        private final Predicate<? super T> filter;
+        private final boolean sorted;
+
+        private final List<T> entities = new ArrayList<>();
+        private double[] distances;
+
+        private Collector(@NotNull Location center,
+                          @NotNull Shape shape,
+                          double radius,
+                          double halfHeight,
+                          @NotNull Class<T> type,
+                          @NotNull Predicate<? super T> filter,
+                          boolean sorted) {
+            this.x = center.getX();
+            this.y = center.getY();
+            this.z = center.getZ();
+            this.shape = shape;
+            this.radius = radius;
+            this.radiusSquared = radius * radius;
+            this.halfHeight = halfHeight;
+            this.type = type;
+            this.filter = filter;
+            this.sorted = sorted;
+            this.distances = sorted ? new double[16] : null;
+        }
+
+        @Override
+        public void visit(@NotNull Entity entity, double x, double y, double z) {
+            double dx = x - this.x, dy = y - this.y, dz = z - this.z;
+            double distance;
+
+            switch (shape) {
+                case BOX -> {
+                    if (Math.abs(dx) > radius || Math.abs(dy) > radius || Math.abs(dz) > radius) return;
+                    distance = dx * dx + dy * dy + dz * dz;
+                }
+                case SPHERE -> {
+                    distance = dx * dx + dy * dy + dz * dz;
+                    if (distance > radiusSquared) return;
+                }
+                default -> {
+                    distance = dx * dx + dz * dz;
+                    if (Math.abs(dy) > halfHeight || distance > radiusSquared) return;
+                }
+            }
+
+            if (!type.isInstance(entity)) return;
+
+            T target = type.cast(entity);
+            if (!filter.test(target)) return;
+
+            if (sorted) {
+                if (entities.size() == distances.length) distances = Arrays.copyOf(distances, distances.length * 2);
+                distances[entities.size()] = distance;
+            }
+            entities.add(target);
+        }
+
+        @NotNull
+        private List<T> result() {
+            if (!sorted || entities.size() < 2) return entities;
+
+            Integer[] order = new Integer[entities.size()];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            Arrays.sort(order, Comparator.comparingDouble(i -> distances[i]));
+
+            List<T> result = new ArrayList<>(order.length);
+            for (int i : order)
+                result.add(entities.get(i));
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.entity;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The batched proximity queries behind {@link AquaEntity}. The centers of a world
+ * are placed in a grid and the entities of the world are swept once, each of them
+ * being checked only against the centers of the neighbouring cells.
+ * */
+final class AquaProximityBatch {
+
+    private AquaProximityBatch() {}
+
+    /**
+     * Gets the entities around each of the given centers, in a box with the given radius.
+     * The candidates are gathered on the calling thread, and the centers of different worlds
+     * are matched against them on the common pool when the evaluation is parallel.
+     *
+     * @param centers the centers
+     * @param radii the radius of each center
+     * @param filter the condition the entities must meet
+     * @param parallel whether to match the worlds in parallel
+     *
+     * @return a list with the entities of each center, in the order of the centers
+     * */
+    @NotNull
+    static List<List<Entity>> query(@NotNull List<Location> centers,
+                                    double @NotNull [] radii,
+                                    @NotNull Predicate<? super Entity> filter,
+                                    boolean parallel) {
+        if (radii.length != centers.size())
+            throw new IllegalArgumentException("There must be a radius for each center.");
+
+        List<List<Entity>> results = new ArrayList<>(centers.size());
+        Map<World, Join> joins = new LinkedHashMap<>();
+
+        for (int i = 0; i < centers.size(); i++) {
+            Location center = centers.get(i);
+            results.add(new ArrayList<>());
+
+            if (center.getWorld() == null || radii[i] < 0) continue;
+            joins.computeIfAbsent(center.getWorld(), Join::new).add(i, center, radii[i]);
+        }
+
+        List<Join> sweeps = new ArrayList<>();
+        for (Join join : joins.values())
+            if (join.gather(centers, radii, filter, results)) sweeps.add(join);
+
+        if (parallel && sweeps.size() > 1) sweeps.parallelStream().forEach(join -> join.match(results));
+        else sweeps.forEach(join -> join.match(results));
+
+        return results;
+    }
+
+    /* The centers of a world, placed in a grid of cells as large as their largest radius. */
+    private static final class Join implements AquaSpatialIndex.PositionVisitor {
+        private final World world;
+
+        private int[] indexes = new int[8];
+        private double[] centerX = new double[8], centerY = new double[8], centerZ = new double[8];
+        private double[] radii = new double[8];
+        private int centerCount;
+        private double maxRadius;
+
+        private final Map<Long, int[]> cells = new HashMap<>();
+        private double cellSize;
+        private double minX, minY, minZ, maxX, maxY, maxZ;
+
+        private Entity[] entities = new Entity[64];
+        private double[] entityX = new double[64], entityY = new double[64], entityZ = new double[64];
+        private int entityCount;
+        private Predicate<? super Entity> filter;
+
+        private Join(@NotNull World world) {
+            this.world = world;
+        }
+
+        private void add(int index, @NotNull Location center, double radius) {
+            if (centerCount == indexes.length) {
+                int length = centerCount * 2;
+                indexes = Arrays.copyOf(indexes, length);
+                centerX = Arrays.copyOf(centerX, length);
+                centerY = Arrays.copyOf(centerY, length);
+                centerZ = Arrays.copyOf(centerZ, length);
+                radii = Arrays.copyOf(radii, length);
+            }
+
+            indexes[centerCount] = index;
+            centerX[centerCount] = center.getX();
+            centerY[centerCount] = center.getY();
+            centerZ[centerCount] = center.getZ();
+            radii[centerCount] = radius;
+            centerCount++;
+
+            maxRadius = Math.max(maxRadius, radius);
+        }
+
+        /*
+         * Answers the centers one by one when they are expected to visit fewer entities than
+         * a sweep of the world, and otherwise gathers the candidates for a sweep.
+         * Returns whether the centers still have to be matched.
+         * */
+        private boolean gather(@NotNull List<Location> centers,
+                               double @NotNull [] radii,
+                               @NotNull Predicate<? super Entity> filter,
+                               @NotNull List<List<Entity>> results) {
+            AquaSpatialIndex index = AquaSpatialIndex.find(world);
+
+            double separate = 0;
+            for (int i = 0; i < centerCount; i++)
+                separate += AquaProximity.estimate(world, centers.get(indexes[i]), this.radii[i], this.radii[i]);
+
+            /* Without an index, the loaded chunks are estimated from the area the players keep loaded. */
+            double sweep = index != null ? index.size() : AquaProximity.density(world)
+                    * Math.max(Bukkit.getOnlinePlayers().size(), 1) * Math.pow(world.getViewDistance() * 2 + 1, 2);
+
+            if (centerCount == 1 || separate < sweep) {
+                for (int i = 0; i < centerCount; i++)
+                    results.set(indexes[i], AquaProximity.query(centers.get(indexes[i]), AquaProximity.Shape.BOX,
+                            radii[indexes[i]], 0, Entity.class, filter, false));
+
+                return false;
+            }
+
+            place();
+            this.filter = filter;
+
+            if (index != null) {
+                index.visitAll(this);
+            } else {
+                Location scratch = new Location(world, 0, 0, 0);
+
+                for (Entity entity : world.getEntities()) {
+                    entity.getLocation(scratch);
+                    visit(entity, scratch.getX(), scratch.getY(), scratch.getZ());
+                }
+            }
+
+            this.filter = null;
+            return true;
+        }
+
+        /* The candidates are rejected by position before the filter is tested. */
+        @Override
+        public void visit(@NotNull Entity entity, double x, double y, double z) {
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) return;
+            if (!nearCenter(x, z) || !filter.test(entity)) return;
+
+            if (entityCount == entities.length) {
+                int length = entityCount * 2;
+                entities = Arrays.copyOf(entities, length);
+                entityX = Arrays.copyOf(entityX, length);
+                entityY = Arrays.copyOf(entityY, length);
+                entityZ = Arrays.copyOf(entityZ, length);
+            }
+
+            entities[entityCount] = entity;
+            entityX[entityCount] = x;
+            entityY[entityCount] = y;
+            entityZ[entityCount] = z;
+            entityCount++;
+        }
+
+        /* Places the centers in the grid and bounds the area they cover. */
+        private void place() {
+            cellSize = Math.max(maxRadius, 1);
+            minX = minY = minZ = Double.POSITIVE_INFINITY;
+            maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+
+            for (int i = 0; i < centerCount; i++) {
+                long key = key(cell(centerX[i]), cell(centerZ[i]));
+                int[] cell = cells.get(key);
+
+                if (cell == null) cell = new int[4];
+                else if (cell[0] + 1 == cell.length) cell = Arrays.copyOf(cell, cell.length * 2);
+
+                cell[++cell[0]] = i;
+                cells.put(key, cell);
+
+                minX = Math.min(minX, centerX[i] - radii[i]);
+                minY = Math.min(minY, centerY[i] - radii[i]);
+                minZ = Math.min(minZ, centerZ[i] - radii[i]);
+                maxX = Math.max(maxX, centerX[i] + radii[i]);
+                maxY = Math.max(maxY, centerY[i] + radii[i]);
+                maxZ = Math.max(maxZ, centerZ[i] + radii[i]);
+            }
+        }
+
+        private boolean nearCenter(double x, double z) {
+            int cellX = cell(x), cellZ = cell(z);
+
+            for (int neighbourX = cellX - 1; neighbourX <= cellX + 1; neighbourX++)
+                for (int neighbourZ = cellZ - 1; neighbourZ <= cellZ + 1; neighbourZ++)
+                    if (cells.containsKey(key(neighbourX, neighbourZ))) return true;
+
+            return false;
+        }
+
+        /* Matches the gathered candidates against the centers of the neighbouring cells. */
+        private void match(@NotNull List<List<Entity>> results) {
+            for (int e = 0; e < entityCount; e++) {
+                double x = entityX[e], y = entityY[e], z = entityZ[e];
+                int cellX = cell(x), cellZ = cell(z);
+
+                for (int neighbourX = cellX - 1; neighbourX <= cellX + 1; neighbourX++) {
+                    for (int neighbourZ = cellZ - 1; neighbourZ <= cellZ + 1; neighbourZ++) {
+                        int[] cell = cells.get(key(neighbourX, neighbourZ));
+                        if (cell == null) continue;
+
+                        for (int k = 1; k <= cell[0]; k++) {
+                            int i = cell[k];
+                            double radius = radii[i];
+
+                            if (Math.abs(x - centerX[i]) > radius
+                                    || Math.abs(y - centerY[i]) > radius
+                                    || Math.abs(z - centerZ[i]) > radius) continue;
+
+                            results.get(indexes[i]).add(entities[e]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int cell(double coordinate) {
+            return (int) Math.floor(coordinate / cellSize);
+        }
+
+        private static long key(int cellX, int cellZ) {
+            return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+        }
+    }
+}
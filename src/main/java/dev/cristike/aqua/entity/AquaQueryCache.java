@@ -0,0 +1,206 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.entity;
+
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * An opt-in cache of the results of the proximity queries of {@link AquaEntity},
+ * which only lives for the tick in which the queries were made.
+ * While it is enabled, the queries with the same world, center, radius and filter
+ * made in the same tick share one read-only result. The centers are rounded to the
+ * quantum of the cache, so queries whose centers are closer than it share their
+ * result as well. Only the queries made on the main thread are cached.
+ * The results expire when the tick counter of {@link AquaScheduler#getCurrentTick()}
+ * advances. The counter starts when the cache is enabled, and the repeating tasks
+ * scheduled before that may run before it advances, so their queries may be answered
+ * with the results of the previous tick. The cache is best enabled when the plugin enables.
+ * */
+public final class AquaQueryCache {
+    private static final int MAX_ENTRIES = 4096;
+
+    private static final Map<Key, List<? extends Entity>> results = new HashMap<>();
+    private static boolean enabled;
+    private static double quantum = 1 / 16.0;
+    private static long tick = -1;
+
+    private static volatile long hits;
+    private static volatile long misses;
+
+    private AquaQueryCache() {}
+
+    /**
+     * Enables the cache, with centers rounded to 1/16 of a block.
+     * While it is enabled, the lists returned by the cached queries are read-only.
+     * */
+    public static void enable() {
+        enable(1 / 16.0);
+    }
+
+    /**
+     * Enables the cache, with centers rounded to the given quantum.
+     * While it is enabled, the lists returned by the cached queries are read-only.
+     *
+     * @param quantum the quantum in blocks
+     * */
+    public static void enable(double quantum) {
+        if (quantum <= 0) throw new IllegalArgumentException("The quantum must be positive.");
+
+        AquaQueryCache.quantum = quantum;
+        results.clear();
+        tick = AquaScheduler.getCurrentTick();
+        enabled = true;
+    }
+
+    /**
+     * Disables the cache and drops the cached results.
+     * */
+    public static void disable() {
+        enabled = false;
+        results.clear();
+    }
+
+    /**
+     * Checks whether the cache is enabled.
+     *
+     * @return true if the cache is enabled, false otherwise
+     * */
+    public static boolean isEnabled() { return enabled; }
+
+    /**
+     * Gets the amount of queries that were answered by the cache.
+     *
+     * @return the amount of hits
+     * */
+    public static long getHits() { return hits; }
+
+    /**
+     * Gets the amount of cached queries that had to ask the world.
+     *
+     * @return the amount of misses
+     * */
+    public static long getMisses() { return misses; }
+
+    /**
+     * Gets the share of the cached queries that were answered by the cache.
+     *
+     * @return the hit rate, between 0 and 1
+     * */
+    public static double getHitRate() {
+        long hits = AquaQueryCache.hits, total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * Resets the amount of hits and misses.
+     * */
+    public static void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Gets the entities that are around the target location in the given radius
+     * and that meet the given condition, sharing the result with the identical queries
+     * of the tick. The condition is compared by identity, so it should be a constant.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param filter the condition
+     *
+     * @return a list of entities that may be empty, read-only if the cache is enabled
+     * */
+    @NotNull
+    public static List<Entity> getNearbyEntities(@NotNull Location location,
+                                                 double radius,
+                                                 @NotNull Predicate<Entity> filter) {
+        return get(location, radius, filter, () -> {
+            List<Entity> entities = AquaEntity.getNearbyEntities(location, radius, new ArrayList<>());
+            entities.removeIf(filter.negate());
+
+            return entities;
+        });
+    }
+
+    /**
+     * Gets the result of the given query from the cache, running it if it is not there.
+     * The key of the query is its world, its rounded center, its radius and its filter.
+     *
+     * @param location the center of the query
+     * @param radius the radius of the query
+     * @param filter the filter of the query, compared by identity
+     * @param query the query
+     * @param <T> the type of the entities
+     *
+     * @return the result of the query
+     * */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    static <T extends Entity> List<T> get(@NotNull Location location,
+                                          double radius,
+                                          @NotNull Object filter,
+                                          @NotNull Supplier<List<T>> query) {
+        if (!enabled || location.getWorld() == null || !Bukkit.isPrimaryThread()) return query.get();
+
+        /* The results of the previous ticks are dropped by the first query of a new tick. */
+        long now = AquaScheduler.getCurrentTick();
+        if (now != tick) {
+            results.clear();
+            tick = now;
+        }
+
+        Key key = new Key(location.getWorld().getUID(),
+                Math.round(location.getX() / quantum),
+                Math.round(location.getY() / quantum),
+                Math.round(location.getZ() / quantum),
+                radius, filter);
+
+        List<T> result = (List<T>) results.get(key);
+        if (result != null) {
+            hits++;
+            return result;
+        }
+
+        misses++;
+        result = Collections.unmodifiableList(query.get());
+
+        if (results.size() < MAX_ENTRIES) results.put(key, result);
+
+        return result;
+    }
+
+    private record Key(@NotNull UUID world, long x, long y, long z, double radius, @NotNull Object filter) {}
+}
@@ -0,0 +1,617 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.entity;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Hanging;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntitySpawnEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.event.world.EntitiesUnloadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * An index of the positions of the entities in a world, kept in a uniform
+ * grid of columns. The entities are added and removed as they spawn, load,
+ * unload and change worlds, and once per tick the tracked entities are moved
+ * to their new column if they changed it, so the index answers proximity
+ * queries without asking the world.
+ * The positions are the ones from the start of the tick, and the index
+ * must only be used on the main thread. The index of a world is disabled
+ * when the world unloads.
+ * */
+public class AquaSpatialIndex {
+    private static final long RECONCILE_PERIOD = 200;
+
+    /* The largest half width and height of the entities, by which the boxes are widened to find the ones overlapping them. */
+    private static final double MAX_HALF_WIDTH = 8;
+    private static final double MAX_HEIGHT = 12;
+
+    private static final Map<UUID, AquaSpatialIndex> indexes = new HashMap<>();
+    private static final Listener listener = new IndexListener();
+    private static boolean registered;
+    private static BukkitTask driver;
+
+    private final World world;
+    private final double cellSize;
+    private final Map<Entity, Entry> entries = new HashMap<>();
+    private final Map<Long, Cell> cells = new HashMap<>();
+    private final Location scratch;
+    private long ticks;
+
+    private AquaSpatialIndex(@NotNull World world, double cellSize) {
+        this.world = world;
+        this.cellSize = cellSize;
+        this.scratch = new Location(world, 0, 0, 0);
+    }
+
+    /**
+     * Enables the index for the given world, with columns of 16 blocks.
+     *
+     * @param world the world
+     *
+     * @return the index of the world
+     * */
+    @NotNull
+    public static AquaSpatialIndex enable(@NotNull World world) {
+        return enable(world, 16);
+    }
+
+    /**
+     * Enables the index for the given world. Smaller columns make the queries
+     * with small radii faster, while larger ones make the refresh cheaper.
+     * If the index is already enabled, the existing one is returned.
+     *
+     * @param world the world
+     * @param cellSize the size of the columns in blocks
+     *
+     * @return the index of the world
+     * */
+    @NotNull
+    public static AquaSpatialIndex enable(@NotNull World world, double cellSize) {
+        if (cellSize <= 0) throw new IllegalArgumentException("The cell size must be positive.");
+
+        if (!registered) {
+            Bukkit.getPluginManager().registerEvents(listener, AquaPlugin.getPlugin());
+            registered = true;
+        }
+
+        AquaSpatialIndex index = indexes.get(world.getUID());
+        if (index == null) {
+            index = new AquaSpatialIndex(world, cellSize);
+            index.reconcile();
+            indexes.put(world.getUID(), index);
+        }
+
+        if (driver == null)
+            driver = AquaScheduler.runTaskTimer(() -> indexes.values().forEach(AquaSpatialIndex::refresh), 1, 1);
+
+        return index;
+    }
+
+    /**
+     * Disables the index of the given world.
+     *
+     * @param world the world
+     * */
+    public static void disable(@NotNull World world) {
+        indexes.remove(world.getUID());
+
+        if (indexes.isEmpty() && driver != null) {
+            driver.cancel();
+            driver = null;
+        }
+    }
+
+    /**
+     * Gets the index of the given world.
+     *
+     * @param world the world
+     *
+     * @return an optional that may contain the index, if it is enabled
+     * */
+    @NotNull
+    public static Optional<AquaSpatialIndex> get(@NotNull World world) {
+        return Optional.ofNullable(indexes.get(world.getUID()));
+    }
+
+    /* Gets the index of the given world without wrapping it, for the hot paths of the tool. */
+    @Nullable
+    static AquaSpatialIndex find(@NotNull World world) {
+        return indexes.isEmpty() ? null : indexes.get(world.getUID());
+    }
+
+    /**
+     * Gets the world of the index.
+     *
+     * @return the world
+     * */
+    @NotNull
+    public World getWorld() { return world; }
+
+    /**
+     * Gets the amount of entities in the index.
+     *
+     * @return the amount of entities
+     * */
+    public int size() { return entries.size(); }
+
+    /**
+     * Updates the positions of the tracked entities and drops the ones that
+     * are no longer valid, except for the dead players, which are kept until they
+     * respawn. This is done automatically at the start of every tick.
+     * Every few seconds, the entities of the world are also scanned, to pick
+     * up the ones that arrived without an event.
+     * */
+    public void refresh() {
+        if (++ticks % RECONCILE_PERIOD == 0) reconcile();
+
+        for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+
+            if (!isPresent(entry.entity) || entry.entity.getWorld() != world) {
+                detach(entry);
+                iterator.remove();
+                continue;
+            }
+
+            /* Hanging entities never move, so their position is only read once. */
+            if (!entry.fixed) move(entry);
+        }
+    }
+
+    /* Dead players are kept, since they respawn as the same entity; the queries skip them while they are dead. */
+    private static boolean isPresent(@NotNull Entity entity) {
+        return entity instanceof Player player ? player.isOnline() : entity.isValid();
+    }
+
+    /* Adds the entities of the world that are not tracked yet. */
+    private void reconcile() {
+        for (Entity entity : world.getEntities())
+            track(entity);
+    }
+
+    /* Starts tracking the given entity, if it is not tracked already. */
+    private void track(@NotNull Entity entity) {
+        if (entries.containsKey(entity)) return;
+
+        Entry entry = new Entry(entity);
+        entries.put(entity, entry);
+        move(entry);
+    }
+
+    /* Stops tracking the given entity. */
+    private void untrack(@NotNull Entity entity) {
+        Entry entry = entries.remove(entity);
+        if (entry != null && entry.cell != null) detach(entry);
+    }
+
+    /* Reads the position of the entity and moves it to its column if it changed. */
+    private void move(@NotNull Entry entry) {
+        Location location = entry.entity.getLocation(scratch);
+
+        entry.x = location.getX();
+        entry.y = location.getY();
+        entry.z = location.getZ();
+
+        long key = key(cell(entry.x), cell(entry.z));
+        if (entry.cell != null && entry.cell.key == key) return;
+
+        if (entry.cell != null) detach(entry);
+        cells.computeIfAbsent(key, Cell::new).add(entry);
+    }
+
+    /**
+     * Adds the entities inside the given box that meet the given
+     * condition to the given collection.
+     *
+     * @param minX the minimum X coordinate
+     * @param minY the minimum Y coordinate
+     * @param minZ the minimum Z coordinate
+     * @param maxX the maximum X coordinate
+     * @param maxY the maximum Y coordinate
+     * @param maxZ the maximum Z coordinate
+     * @param filter the condition
+     * @param output the collection to which the entities are added
+     * @param <C> the type of the collection
+     *
+     * @return the given collection
+     * */
+    @NotNull
+    public <C extends Collection<? super Entity>> C getEntitiesInBox(double minX, double minY, double minZ,
+                                                                     double maxX, double maxY, double maxZ,
+                                                                     @NotNull Predicate<? super Entity> filter,
+                                                                     @NotNull C output) {
+        visitBox(minX, minY, minZ, maxX, maxY, maxZ, (entity, x, y, z) -> {
+            if (filter.test(entity)) output.add(entity);
+        });
+
+        return output;
+    }
+
+    /**
+     * Visits the valid entities inside the given box, together with
+     * their positions as of the last refresh.
+     *
+     * @param minX the minimum X coordinate
+     * @param minY the minimum Y coordinate
+     * @param minZ the minimum Z coordinate
+     * @param maxX the maximum X coordinate
+     * @param maxY the maximum Y coordinate
+     * @param maxZ the maximum Z coordinate
+     * @param visitor the visitor
+     * */
+    void visitBox(double minX, double minY, double minZ,
+                  double maxX, double maxY, double maxZ,
+                  @NotNull PositionVisitor visitor) {
+        int minCellX = cell(minX), maxCellX = cell(maxX);
+        int minCellZ = cell(minZ), maxCellZ = cell(maxZ);
+
+        /* When the box covers more columns than there are occupied, the occupied ones are scanned instead. */
+        if (((double) maxCellX - minCellX + 1) * ((double) maxCellZ - minCellZ + 1) > cells.size()) {
+            for (Cell cell : cells.values())
+                visit(cell, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+
+            return;
+        }
+
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                Cell cell = cells.get(key(cellX, cellZ));
+                if (cell != null) visit(cell, minX, minY, minZ, maxX, maxY, maxZ, visitor);
+            }
+        }
+    }
+
+    /**
+     * Visits the valid entities whose bounding boxes, at their indexed positions,
+     * overlap the given box, the same way the world finds its nearby entities.
+     *
+     * @param minX the minimum X coordinate
+     * @param minY the minimum Y coordinate
+     * @param minZ the minimum Z coordinate
+     * @param maxX the maximum X coordinate
+     * @param maxY the maximum Y coordinate
+     * @param maxZ the maximum Z coordinate
+     * @param visitor the visitor
+     * */
+    void visitOverlapping(double minX, double minY, double minZ,
+                          double maxX, double maxY, double maxZ,
+                          @NotNull PositionVisitor visitor) {
+        visitBox(minX - MAX_HALF_WIDTH, minY - MAX_HEIGHT, minZ - MAX_HALF_WIDTH,
+                maxX + MAX_HALF_WIDTH, maxY, maxZ + MAX_HALF_WIDTH, (entity, x, y, z) -> {
+            double halfWidth = entity.getWidth() / 2;
+
+            if (x - halfWidth >= maxX || x + halfWidth <= minX || y >= maxY || y + entity.getHeight() <= minY
+                    || z - halfWidth >= maxZ || z + halfWidth <= minZ) return;
+
+            visitor.visit(entity, x, y, z);
+        });
+    }
+
+    /**
+     * Visits all the valid entities of the index with their indexed positions.
+     *
+     * @param visitor the visitor
+     * */
+    void visitAll(@NotNull PositionVisitor visitor) {
+        for (Entry entry : entries.values())
+            if (entry.entity.isValid()) visitor.visit(entry.entity, entry.x, entry.y, entry.z);
+    }
+
+    /**
+     * Visits the valid entities in the columns that are the given amount of columns away
+     * from the column of the given position, which is the ring 0.
+     *
+     * @param x the X coordinate
+     * @param z the Z coordinate
+     * @param ring the distance in columns
+     * @param visitor the visitor
+     *
+     * @return the amount of occupied columns in the ring
+     * */
+    int visitRing(double x, double z, int ring, @NotNull PositionVisitor visitor) {
+        int centerX = cell(x), centerZ = cell(z);
+        int occupied = 0;
+
+        for (int cellX = centerX - ring; cellX <= centerX + ring; cellX++) {
+            int step = cellX == centerX - ring || cellX == centerX + ring ? 1 : Math.max(ring * 2, 1);
+
+            for (int cellZ = centerZ - ring; cellZ <= centerZ + ring; cellZ += step) {
+                Cell cell = cells.get(key(cellX, cellZ));
+                if (cell == null) continue;
+
+                occupied++;
+                visit(cell, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                        Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, visitor);
+            }
+        }
+
+        return occupied;
+    }
+
+    /**
+     * Gets the horizontal distance from the given position to the outside
+     * of the rings up to the given one, which no entity beyond them can be closer than.
+     *
+     * @param x the X coordinate
+     * @param z the Z coordinate
+     * @param ring the distance in columns
+     *
+     * @return the distance in blocks
+     * */
+    double ringClearance(double x, double z, int ring) {
+        int centerX = cell(x), centerZ = cell(z);
+
+        return Math.min(
+                Math.min(x - (centerX - ring) * cellSize, (centerX + ring + 1) * cellSize - x),
+                Math.min(z - (centerZ - ring) * cellSize, (centerZ + ring + 1) * cellSize - z));
+    }
+
+    /**
+     * Gets the amount of columns that hold at least one entity.
+     *
+     * @return the amount of columns
+     * */
+    int columns() {
+        return cells.size();
+    }
+
+    /**
+     * Counts the entities in the columns that overlap the given area,
+     * without checking their exact positions.
+     *
+     * @param minX the minimum X coordinate
+     * @param minZ the minimum Z coordinate
+     * @param maxX the maximum X coordinate
+     * @param maxZ the maximum Z coordinate
+     *
+     * @return the amount of entities
+     * */
+    int count(double minX, double minZ, double maxX, double maxZ) {
+        int minCellX = cell(minX), maxCellX = cell(maxX);
+        int minCellZ = cell(minZ), maxCellZ = cell(maxZ);
+
+        if (((double) maxCellX - minCellX + 1) * ((double) maxCellZ - minCellZ + 1) > cells.size()) return entries.size();
+
+        int count = 0;
+        for (int cellX = minCellX; cellX <= maxCellX; cellX++) {
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; cellZ++) {
+                Cell cell = cells.get(key(cellX, cellZ));
+                if (cell != null) count += cell.size;
+            }
+        }
+
+        return count;
+    }
+
+    private static void visit(@NotNull Cell cell,
+                              double minX, double minY, double minZ,
+                              double maxX, double maxY, double maxZ,
+                              @NotNull PositionVisitor visitor) {
+        for (int i = 0; i < cell.size; i++) {
+            Entry entry = cell.entries[i];
+
+            if (entry.x < minX || entry.x > maxX || entry.y < minY || entry.y > maxY
+                    || entry.z < minZ || entry.z > maxZ) continue;
+            if (!entry.entity.isValid()) continue;
+
+            visitor.visit(entry.entity, entry.x, entry.y, entry.z);
+        }
+    }
+
+    /**
+     * Gets the entities that are around the target location in the given radius,
+     * the same way as {@link AquaEntity#getNearbyEntities(Location, double)}.
+     *
+     * @param location the location
+     * @param radius the radius
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    public List<Entity> getNearbyEntities(@NotNull Location location, double radius) {
+        return getNearbyEntities(location, radius, entity -> true, new ArrayList<>());
+    }
+
+    /**
+     * Gets the entities of the given type that are around the target location
+     * in the given radius.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param type the type of the entities
+     * @param <T> the type of the entities
+     *
+     * @return a list of entities that may be empty
+     * */
+    @NotNull
+    @SuppressWarnings("unchecked")
+    public <T extends Entity> List<T> getNearbyEntities(@NotNull Location location, double radius, @NotNull Class<T> type) {
+        return (List<T>) getNearbyEntities(location, radius, type::isInstance, new ArrayList<Entity>());
+    }
+
+    /**
+     * Adds the entities that are around the target location in the given radius
+     * and that meet the given condition to the given collection.
+     * An entity is around the location if its bounding box overlaps the box
+     * of the given radius around it.
+     *
+     * @param location the location
+     * @param radius the radius
+     * @param filter the condition
+     * @param output the collection to which the entities are added
+     * @param <C> the type of the collection
+     *
+     * @return the given collection
+     * */
+    @NotNull
+    public <C extends Collection<? super Entity>> C getNearbyEntities(@NotNull Location location,
+                                                                      double radius,
+                                                                      @NotNull Predicate<? super Entity> filter,
+                                                                      @NotNull C output) {
+        double x = location.getX(), y = location.getY(), z = location.getZ();
+        visitOverlapping(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius,
+                (entity, entityX, entityY, entityZ) -> {
+                    if (filter.test(entity)) output.add(entity);
+                });
+
+        return output;
+    }
+
+    /* Removes the entry from its column, dropping the column once it is empty. */
+    private void detach(@NotNull Entry entry) {
+        Cell cell = entry.cell;
+
+        cell.remove(entry);
+        if (cell.size == 0) cells.remove(cell.key);
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cellX, int cellZ) {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    /* A visitor of entities together with their indexed positions. */
+    interface PositionVisitor {
+        void visit(@NotNull Entity entity, double x, double y, double z);
+    }
+
+    /* The position of an entity as of the last refresh. */
+    private static final class Entry {
+        private final Entity entity;
+        private final boolean fixed;
+        private double x, y, z;
+        private Cell cell;
+        private int slot;
+
+        private Entry(@NotNull Entity entity) {
+            this.entity = entity;
+            this.fixed = entity instanceof Hanging;
+        }
+    }
+
+    /* Keeps the indexes in sync with the entities that enter and leave their worlds. */
+    private static final class IndexListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onSpawn(@NotNull EntitySpawnEvent event) {
+            AquaSpatialIndex index = find(event.getEntity().getWorld());
+            if (index != null) index.track(event.getEntity());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onLoad(@NotNull EntitiesLoadEvent event) {
+            AquaSpatialIndex index = find(event.getWorld());
+            if (index != null) event.getEntities().forEach(index::track);
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onUnload(@NotNull EntitiesUnloadEvent event) {
+            AquaSpatialIndex index = find(event.getWorld());
+            if (index != null) event.getEntities().forEach(index::untrack);
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onJoin(@NotNull PlayerJoinEvent event) {
+            AquaSpatialIndex index = find(event.getPlayer().getWorld());
+            if (index != null) index.track(event.getPlayer());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onQuit(@NotNull PlayerQuitEvent event) {
+            AquaSpatialIndex index = find(event.getPlayer().getWorld());
+            if (index != null) index.untrack(event.getPlayer());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onChangedWorld(@NotNull PlayerChangedWorldEvent event) {
+            AquaSpatialIndex from = find(event.getFrom());
+            if (from != null) from.untrack(event.getPlayer());
+
+            AquaSpatialIndex to = find(event.getPlayer().getWorld());
+            if (to != null) to.track(event.getPlayer());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onWorldUnload(@NotNull WorldUnloadEvent event) {
+            disable(event.getWorld());
+        }
+    }
+
+    /* A column of the grid, which removes entries in O(1) by moving the last one in their slot. */
+    private static final class Cell {
+        private final long key;
+        private Entry[] entries = new Entry[8];
+        private int size;
+
+        private Cell(long key) {
+            this.key = key;
+        }
+
+        private void add(@NotNull Entry entry) {
+            if (size == entries.length) entries = Arrays.copyOf(entries, size * 2);
+
+            entry.cell = this;
+            entry.slot = size;
+            entries[size++] = entry;
+        }
+
+        private void remove(@NotNull Entry entry) {
+            Entry last = entries[--size];
+            entries[entry.slot] = last;
+            last.slot = entry.slot;
+            entries[size] = null;
+
+            entry.cell = null;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.particle;
+
+import org.bukkit.Color;
+import org.bukkit.Particle;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache of the dust options of the colored particles, keyed by their
+ * color and size, so that the same options are not allocated on every spawn.
+ * When the cache is full, it is emptied and filled again by the combinations in use.
+ * */
+final class AquaDustCache {
+    private static final int MAX_ENTRIES = 1024;
+    private static final Map<Long, Particle.DustOptions> options = new ConcurrentHashMap<>();
+
+    private AquaDustCache() {}
+
+    /**
+     * Gets the dust options with the given color and size.
+     *
+     * @param color the color
+     * @param size the particle size
+     *
+     * @return the dust options
+     * */
+    @NotNull
+    static Particle.DustOptions get(@NotNull Color color, float size) {
+        long key = ((long) color.asRGB() << 32) | (Float.floatToIntBits(size) & 0xFFFFFFFFL);
+
+        Particle.DustOptions cached = options.get(key);
+        if (cached != null) return cached;
+
+        /* The cache starts over when it is full, so that the combinations in use are cached again. */
+        if (options.size() >= MAX_ENTRIES) options.clear();
+
+        Particle.DustOptions created = new Particle.DustOptions(color, size);
+        cached = options.putIfAbsent(key, created);
+        return cached != null ? cached : created;
+    }
+}
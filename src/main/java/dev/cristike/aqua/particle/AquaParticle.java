@@ -86,7 +86,7 @@ public class AquaParticle {
     public static void spawnColoredParticle(@NotNull Location location, @NotNull Color color) {
         if (location.getWorld() == null) return;
         location.getWorld().spawnParticle(Particle.REDSTONE, location, 1,
-                new Particle.DustOptions(color, 1));
+                AquaDustCache.get(color, 1));
     }
 
     /**
@@ -99,7 +99,7 @@ public class AquaParticle {
     public static void spawnColoredParticle(@NotNull Location location, @NotNull Color color, float size) {
         if (location.getWorld() == null) return;
         location.getWorld().spawnParticle(Particle.REDSTONE, location, 1,
-                new Particle.DustOptions(color, size));
+                AquaDustCache.get(color, size));
     }
 
     /**
@@ -112,7 +112,7 @@ public class AquaParticle {
     public static void spawnColoredParticle(@NotNull Location location, int count, @NotNull Color color) {
         if (location.getWorld() == null) return;
         location.getWorld().spawnParticle(Particle.REDSTONE, location, count,
-                new Particle.DustOptions(color, 1));
+                AquaDustCache.get(color, 1));
     }
 
     /**
@@ -130,7 +130,7 @@ public class AquaParticle {
                                             float size) {
         if (location.getWorld() == null) return;
         location.getWorld().spawnParticle(Particle.REDSTONE, location, count,
-                new Particle.DustOptions(color, size));
+                AquaDustCache.get(color, size));
     }
 
     /**
@@ -153,7 +153,7 @@ public class AquaParticle {
                                             @NotNull Color color) {
         if (location.getWorld() == null) return;
         location.getWorld().spawnParticle(Particle.REDSTONE, location, count, offsetX, offsetY, offsetZ,
-                new Particle.DustOptions(color, 1));
+                AquaDustCache.get(color, 1));
     }
 
     /**
@@ -179,6 +179,6 @@ public class AquaParticle {
                                             float size) {
         if (location.getWorld() == null) return;
         location.getWorld().spawnParticle(Particle.REDSTONE, location, count, offsetX, offsetY, offsetZ,
-                new Particle.DustOptions(color, size));
+                AquaDustCache.get(color, size));
     }
 }
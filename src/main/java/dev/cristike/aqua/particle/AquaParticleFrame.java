@@ -0,0 +1,384 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.particle;
+
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A frame of particles that is sent to each viewer separately, so that every
+ * viewer only receives the points it can see. A point is sent to a viewer if it
+ * is within the view distance and inside the view cone of the viewer, or very
+ * close to it. Each player may receive a limited amount of particles in a tick,
+ * shared by all the frames; when a frame does not fit in what is left, its points
+ * are evenly thinned out instead of cut off.
+ * A frame can be cleared and reused, and must be sent on the main thread.
+ * */
+public class AquaParticleFrame {
+    private static final double NEAR_DISTANCE_SQUARED = 3 * 3;
+
+    /* The particles sent to each player, stamped with the tick they were sent in. */
+    private static final Map<UUID, long[]> sent = new HashMap<>();
+    private static int playerBudget = 1000;
+    private static long lastTick = -1;
+
+    private final World world;
+    private Collection<? extends Player> viewers;
+    private double viewDistanceSquared = 32 * 32;
+    private double viewConeCosine = Math.cos(Math.toRadians(75));
+
+    private double[] x = new double[64], y = new double[64], z = new double[64];
+    private Particle[] particles = new Particle[64];
+    private Object[] data = new Object[64];
+    private int size;
+
+    private int[] visible = new int[64];
+
+    private AquaParticleFrame(@NotNull World world) {
+        this.world = world;
+    }
+
+    /**
+     * Creates an empty frame for the given world.
+     *
+     * @param world the world
+     *
+     * @return the frame
+     * */
+    @NotNull
+    public static AquaParticleFrame of(@NotNull World world) {
+        return new AquaParticleFrame(world);
+    }
+
+    /**
+     * Sets the amount of particles a player may receive in a tick.
+     *
+     * @param budget the amount of particles
+     * */
+    public static void setPlayerBudget(int budget) {
+        if (budget <= 0) throw new IllegalArgumentException("The budget must be positive.");
+        playerBudget = budget;
+    }
+
+    /**
+     * Gets the amount of particles a player may receive in a tick.
+     *
+     * @return the amount of particles
+     * */
+    public static int getPlayerBudget() { return playerBudget; }
+
+    /**
+     * Sets the players that may see the frame.
+     * By default, all the players in the world of the frame may see it.
+     *
+     * @param viewers the players
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame viewers(@NotNull Collection<? extends Player> viewers) {
+        this.viewers = viewers;
+        return this;
+    }
+
+    /**
+     * Sets the maximum distance between a viewer and the points it receives.
+     *
+     * @param distance the distance in blocks
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame viewDistance(double distance) {
+        if (distance <= 0) throw new IllegalArgumentException("The distance must be positive.");
+
+        this.viewDistanceSquared = distance * distance;
+        return this;
+    }
+
+    /**
+     * Sets the maximum angle between the direction a viewer looks at
+     * and the points it receives. An angle of 180 degrees disables the cone.
+     *
+     * @param degrees the angle in degrees
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame viewCone(double degrees) {
+        if (degrees <= 0) throw new IllegalArgumentException("The angle must be positive.");
+
+        this.viewConeCosine = Math.cos(Math.toRadians(Math.min(degrees, 180)));
+        return this;
+    }
+
+    /**
+     * Adds a particle at the given position.
+     * The particle must not need data; the styles are used for the ones that do.
+     *
+     * @param particle the type of particle
+     * @param x the X coordinate
+     * @param y the Y coordinate
+     * @param z the Z coordinate
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame point(@NotNull Particle particle, double x, double y, double z) {
+        requireNoData(particle);
+        add(particle, x, y, z, null);
+        return this;
+    }
+
+    /**
+     * Adds a particle at the given location.
+     * The particle must not need data; the styles are used for the ones that do.
+     *
+     * @param particle the type of particle
+     * @param location the location
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame point(@NotNull Particle particle, @NotNull Location location) {
+        requireNoData(particle);
+        add(particle, location.getX(), location.getY(), location.getZ(), null);
+        return this;
+    }
+
+    /**
+     * Adds a particle of the given style at the given location.
+     *
+     * @param style the style of the particle
+     * @param location the location
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame point(@NotNull AquaParticleStyle style, @NotNull Location location) {
+        add(style.getParticle(), location.getX(), location.getY(), location.getZ(), style.getOptions());
+        return this;
+    }
+
+    /**
+     * Adds a colored particle of a specific size at the given location.
+     *
+     * @param location the location
+     * @param color the color of the particle
+     * @param size the particle size
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame coloredPoint(@NotNull Location location, @NotNull Color color, float size) {
+        add(Particle.REDSTONE, location.getX(), location.getY(), location.getZ(), AquaDustCache.get(color, size));
+        return this;
+    }
+
+    /**
+     * Adds a particle at every point of the given shape around the given origin.
+     * The particle must not need data; the styles are used for the ones that do.
+     *
+     * @param shape the shape
+     * @param origin the origin
+     * @param particle the type of particle
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame shape(@NotNull AquaShape shape, @NotNull Location origin, @NotNull Particle particle) {
+        requireNoData(particle);
+        shape.forEachPoint(origin, location -> add(particle, location.getX(), location.getY(), location.getZ(), null));
+        return this;
+    }
+
+    /**
+     * Adds a particle of the given style at every point of the given shape around the given origin.
+     *
+     * @param shape the shape
+     * @param origin the origin
+     * @param style the style of the particles
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame shape(@NotNull AquaShape shape, @NotNull Location origin, @NotNull AquaParticleStyle style) {
+        shape.forEachPoint(origin, location ->
+                add(style.getParticle(), location.getX(), location.getY(), location.getZ(), style.getOptions()));
+        return this;
+    }
+
+    /**
+     * Adds a colored particle of a specific size at every point
+     * of the given shape around the given origin.
+     *
+     * @param shape the shape
+     * @param origin the origin
+     * @param color the color of the particles
+     * @param size the particle size
+     *
+     * @return this frame
+     * */
+    @NotNull
+    public AquaParticleFrame coloredShape(@NotNull AquaShape shape,
+                                          @NotNull Location origin,
+                                          @NotNull Color color,
+                                          float size) {
+        Particle.DustOptions options = AquaDustCache.get(color, size);
+        shape.forEachPoint(origin, location ->
+                add(Particle.REDSTONE, location.getX(), location.getY(), location.getZ(), options));
+        return this;
+    }
+
+    /**
+     * Gets the amount of points in the frame.
+     *
+     * @return the amount of points
+     * */
+    public int size() { return size; }
+
+    /**
+     * Removes all the points of the frame, keeping its settings.
+     * */
+    public void clear() {
+        Arrays.fill(data, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * Sends the points of the frame to the viewers that can see them,
+     * within the budget each viewer has left in this tick.
+     *
+     * @return the amount of particles sent
+     * */
+    public int send() {
+        if (size == 0) return 0;
+
+        /* The budgets stamped with an older tick are spent in a previous tick, so they count as unused. */
+        long now = AquaScheduler.getCurrentTick();
+        if (now != lastTick) {
+            lastTick = now;
+            if (sent.size() > Bukkit.getOnlinePlayers().size()) sent.clear();
+        }
+
+        int total = 0;
+        for (Player viewer : viewers == null ? world.getPlayers() : viewers) {
+            if (viewer.getWorld() != world) continue;
+
+            long[] used = sent.computeIfAbsent(viewer.getUniqueId(), uuid -> new long[2]);
+            if (used[0] != now) {
+                used[0] = now;
+                used[1] = 0;
+            }
+
+            int remaining = (int) (playerBudget - used[1]);
+            if (remaining <= 0) continue;
+
+            int count = collect(viewer.getEyeLocation());
+            int delivered = deliver(viewer, count, remaining);
+
+            used[1] += delivered;
+            total += delivered;
+        }
+
+        return total;
+    }
+
+    /* Gathers the points the viewer at the given eye location can see in the visible array. */
+    private int collect(@NotNull Location eye) {
+        Vector direction = eye.getDirection();
+        double eyeX = eye.getX(), eyeY = eye.getY(), eyeZ = eye.getZ();
+        double directionX = direction.getX(), directionY = direction.getY(), directionZ = direction.getZ();
+        int count = 0;
+
+        for (int i = 0; i < size; i++) {
+            double dx = x[i] - eyeX, dy = y[i] - eyeY, dz = z[i] - eyeZ;
+            double distanceSquared = dx * dx + dy * dy + dz * dz;
+
+            if (distanceSquared > viewDistanceSquared) continue;
+
+            /* The point is inside the cone if the cosine of its angle to the direction is large enough. */
+            if (distanceSquared > NEAR_DISTANCE_SQUARED) {
+                double dot = dx * directionX + dy * directionY + dz * directionZ;
+                if (dot < viewConeCosine * Math.sqrt(distanceSquared)) continue;
+            }
+
+            visible[count++] = i;
+        }
+
+        return count;
+    }
+
+    /* Sends the visible points to the viewer, thinning them out evenly if they exceed the budget. */
+    private int deliver(@NotNull Player viewer, int count, int remaining) {
+        int delivered = Math.min(count, remaining);
+        double step = count / (double) delivered;
+
+        for (int k = 0; k < delivered; k++) {
+            int i = visible[(int) (k * step)];
+
+            if (data[i] == null) viewer.spawnParticle(particles[i], x[i], y[i], z[i], 1);
+            else viewer.spawnParticle(particles[i], x[i], y[i], z[i], 1, data[i]);
+        }
+
+        return delivered;
+    }
+
+    private void add(@NotNull Particle particle, double x, double y, double z, @Nullable Object data) {
+        if (size == this.x.length) {
+            int length = size * 2;
+            this.x = Arrays.copyOf(this.x, length);
+            this.y = Arrays.copyOf(this.y, length);
+            this.z = Arrays.copyOf(this.z, length);
+            this.particles = Arrays.copyOf(this.particles, length);
+            this.data = Arrays.copyOf(this.data, length);
+            this.visible = new int[length];
+        }
+
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        this.particles[size] = particle;
+        this.data[size] = data;
+        size++;
+    }
+
+    private static void requireNoData(@NotNull Particle particle) {
+        if (particle.getDataType() != Void.class)
+            throw new IllegalArgumentException("The particle needs data, use a style or a colored point instead.");
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.particle;
+
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A particle together with its resolved data, which can be created once
+ * and held by the callers that spawn the same particle over and over.
+ * */
+public final class AquaParticleStyle {
+    private final Particle particle;
+    private final Particle.DustOptions options;
+
+    private AquaParticleStyle(@NotNull Particle particle, @Nullable Particle.DustOptions options) {
+        this.particle = particle;
+        this.options = options;
+    }
+
+    /**
+     * Creates the style of a particle that has no data.
+     * The colored particles are created with {@link #colored(Color, float)} instead.
+     *
+     * @param particle the type of particle
+     *
+     * @return the style
+     * */
+    @NotNull
+    public static AquaParticleStyle of(@NotNull Particle particle) {
+        if (particle.getDataType() != Void.class)
+            throw new IllegalArgumentException("The particle needs data, use a colored style instead.");
+
+        return new AquaParticleStyle(particle, null);
+    }
+
+    /**
+     * Creates the style of a colored particle.
+     *
+     * @param color the color of the particle
+     *
+     * @return the style
+     * */
+    @NotNull
+    public static AquaParticleStyle colored(@NotNull Color color) {
+        return colored(color, 1);
+    }
+
+    /**
+     * Creates the style of a colored particle of a specific size.
+     *
+     * @param color the color of the particle
+     * @param size the particle size
+     *
+     * @return the style
+     * */
+    @NotNull
+    public static AquaParticleStyle colored(@NotNull Color color, float size) {
+        return new AquaParticleStyle(Particle.REDSTONE, AquaDustCache.get(color, size));
+    }
+
+    /**
+     * Gets the type of particle of the style.
+     *
+     * @return the type of particle
+     * */
+    @NotNull
+    public Particle getParticle() { return particle; }
+
+    /**
+     * Gets the dust options of the style, if it is colored.
+     *
+     * @return the dust options, or null if the style is not colored
+     * */
+    @Nullable
+    public Particle.DustOptions getOptions() { return options; }
+
+    /**
+     * Spawns a particle of this style at the target location.
+     *
+     * @param location the location
+     * */
+    public void spawn(@NotNull Location location) {
+        spawn(location, 1);
+    }
+
+    /**
+     * Spawns a given amount of particles of this style at the target location.
+     *
+     * @param location the location
+     * @param count the amount of particles
+     * */
+    public void spawn(@NotNull Location location, int count) {
+        if (location.getWorld() == null) return;
+
+        if (options == null) location.getWorld().spawnParticle(particle, location, count);
+        else location.getWorld().spawnParticle(particle, location, count, options);
+    }
+}
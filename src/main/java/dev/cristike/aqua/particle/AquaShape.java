@@ -0,0 +1,206 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.particle;
+
+import org.bukkit.Color;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.util.Vector;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.Consumer;
+
+/**
+ * A shape made of points around an origin, that can be drawn with particles.
+ * The points are scaled from cached tables of unit points, and drawing them
+ * reuses a single location, so that a shape can be drawn every tick without
+ * computing trigonometry or allocating anything.
+ * A shape should only be drawn from one thread at a time.
+ * */
+public final class AquaShape {
+    private final AquaShapeTable table;
+    private final double scaleX, scaleY, scaleZ;
+    private final Location scratch = new Location(null, 0, 0, 0);
+
+    private AquaShape(@NotNull AquaShapeTable table, double scaleX, double scaleY, double scaleZ) {
+        this.table = table;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        this.scaleZ = scaleZ;
+    }
+
+    /**
+     * Creates a horizontal circle centered on the origin.
+     *
+     * @param radius the radius
+     * @param points the amount of points
+     *
+     * @return the shape
+     * */
+    @NotNull
+    public static AquaShape circle(double radius, int points) {
+        checkResolution(points);
+        return new AquaShape(AquaShapeTable.circle(points), radius, 0, radius);
+    }
+
+    /**
+     * Creates a sphere centered on the origin, with the points
+     * evenly spread on its surface.
+     *
+     * @param radius the radius
+     * @param points the amount of points
+     *
+     * @return the shape
+     * */
+    @NotNull
+    public static AquaShape sphere(double radius, int points) {
+        checkResolution(points);
+        return new AquaShape(AquaShapeTable.sphere(points), radius, radius, radius);
+    }
+
+    /**
+     * Creates a line that goes from the origin to the origin moved by the given offset.
+     *
+     * @param offset the offset of the end of the line
+     * @param points the amount of points
+     *
+     * @return the shape
+     * */
+    @NotNull
+    public static AquaShape line(@NotNull Vector offset, int points) {
+        checkResolution(points);
+        return new AquaShape(AquaShapeTable.line(points), offset.getX(), offset.getY(), offset.getZ());
+    }
+
+    /**
+     * Creates a vertical helix that starts at the origin and rises
+     * to the given height over the given amount of turns.
+     *
+     * @param radius the radius
+     * @param height the height
+     * @param turns the amount of turns
+     * @param pointsPerTurn the amount of points of every turn
+     *
+     * @return the shape
+     * */
+    @NotNull
+    public static AquaShape helix(double radius, double height, int turns, int pointsPerTurn) {
+        checkResolution(turns);
+        checkResolution(pointsPerTurn);
+        return new AquaShape(AquaShapeTable.helix(pointsPerTurn, turns), radius, height, radius);
+    }
+
+    /**
+     * Creates the outline of a cuboid centered on the origin.
+     *
+     * @param sizeX the size along the X axis
+     * @param sizeY the size along the Y axis
+     * @param sizeZ the size along the Z axis
+     * @param pointsPerEdge the amount of points of every edge
+     *
+     * @return the shape
+     * */
+    @NotNull
+    public static AquaShape cuboid(double sizeX, double sizeY, double sizeZ, int pointsPerEdge) {
+        checkResolution(pointsPerEdge);
+        return new AquaShape(AquaShapeTable.cuboid(pointsPerEdge), sizeX, sizeY, sizeZ);
+    }
+
+    /**
+     * Gets the amount of points of the shape.
+     *
+     * @return the amount of points
+     * */
+    public int getPoints() { return table.size(); }
+
+    /**
+     * Executes the given action for every point of the shape around the given origin.
+     * The action receives the same location for every point, which it must not keep.
+     *
+     * @param origin the origin
+     * @param action the action
+     * */
+    public void forEachPoint(@NotNull Location origin, @NotNull Consumer<Location> action) {
+        scratch.setWorld(origin.getWorld());
+
+        double originX = origin.getX(), originY = origin.getY(), originZ = origin.getZ();
+        double[] x = table.x, y = table.y, z = table.z;
+
+        for (int i = 0; i < x.length; i++) {
+            scratch.setX(originX + x[i] * scaleX);
+            scratch.setY(originY + y[i] * scaleY);
+            scratch.setZ(originZ + z[i] * scaleZ);
+            action.accept(scratch);
+        }
+    }
+
+    /**
+     * Spawns a particle at every point of the shape around the given origin.
+     *
+     * @param origin the origin
+     * @param particle the type of particle
+     * */
+    public void spawnParticle(@NotNull Location origin, @NotNull Particle particle) {
+        if (origin.getWorld() == null) return;
+        forEachPoint(origin, location -> AquaParticle.spawnParticle(particle, location));
+    }
+
+    /**
+     * Spawns a colored particle at every point of the shape around the given origin.
+     *
+     * @param origin the origin
+     * @param color the color of the particles
+     * */
+    public void spawnColoredParticle(@NotNull Location origin, @NotNull Color color) {
+        if (origin.getWorld() == null) return;
+        forEachPoint(origin, location -> AquaParticle.spawnColoredParticle(location, color));
+    }
+
+    /**
+     * Spawns a colored particle of a specific size at every point
+     * of the shape around the given origin.
+     *
+     * @param origin the origin
+     * @param color the color of the particles
+     * @param size the particle size
+     * */
+    public void spawnColoredParticle(@NotNull Location origin, @NotNull Color color, float size) {
+        if (origin.getWorld() == null) return;
+        forEachPoint(origin, location -> AquaParticle.spawnColoredParticle(location, color, size));
+    }
+
+    /**
+     * Spawns a particle of the given style at every point of the shape around the given origin.
+     *
+     * @param origin the origin
+     * @param style the style of the particles
+     * */
+    public void spawnParticle(@NotNull Location origin, @NotNull AquaParticleStyle style) {
+        if (origin.getWorld() == null) return;
+        forEachPoint(origin, style::spawn);
+    }
+
+    private static void checkResolution(int points) {
+        if (points < 1) throw new IllegalArgumentException("The amount of points must be positive.");
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.particle;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A table of unit points, stored as one array per axis, from which the shapes
+ * are scaled. The tables are computed once for every resolution and shared by
+ * all the shapes that use them, so that no trigonometry is done when drawing.
+ * */
+final class AquaShapeTable {
+    private static final double GOLDEN_ANGLE = Math.PI * (3 - Math.sqrt(5));
+
+    private static final Map<Integer, AquaShapeTable> circles = new ConcurrentHashMap<>();
+    private static final Map<Integer, AquaShapeTable> spheres = new ConcurrentHashMap<>();
+    private static final Map<Integer, AquaShapeTable> lines = new ConcurrentHashMap<>();
+    private static final Map<Long, AquaShapeTable> helixes = new ConcurrentHashMap<>();
+    private static final Map<Integer, AquaShapeTable> cuboids = new ConcurrentHashMap<>();
+
+    final double[] x, y, z;
+
+    private AquaShapeTable(int size) {
+        this.x = new double[size];
+        this.y = new double[size];
+        this.z = new double[size];
+    }
+
+    int size() { return x.length; }
+
+    /* Points evenly spread on the horizontal circle of radius 1. */
+    @NotNull
+    static AquaShapeTable circle(int points) {
+        return circles.computeIfAbsent(points, key -> {
+            AquaShapeTable table = new AquaShapeTable(points);
+
+            for (int i = 0; i < points; i++) {
+                double angle = 2 * Math.PI * i / points;
+                table.x[i] = Math.cos(angle);
+                table.z[i] = Math.sin(angle);
+            }
+
+            return table;
+        });
+    }
+
+    /* Points spread on the sphere of radius 1 along a Fibonacci spiral. */
+    @NotNull
+    static AquaShapeTable sphere(int points) {
+        return spheres.computeIfAbsent(points, key -> {
+            AquaShapeTable table = new AquaShapeTable(points);
+
+            for (int i = 0; i < points; i++) {
+                double y = 1 - 2 * (i + 0.5) / points;
+                double radius = Math.sqrt(1 - y * y);
+                double angle = GOLDEN_ANGLE * i;
+
+                table.x[i] = Math.cos(angle) * radius;
+                table.y[i] = y;
+                table.z[i] = Math.sin(angle) * radius;
+            }
+
+            return table;
+        });
+    }
+
+    /* Points evenly spread from 0 to 1 on every axis, scaled by the offset of the line. */
+    @NotNull
+    static AquaShapeTable line(int points) {
+        return lines.computeIfAbsent(points, key -> {
+            AquaShapeTable table = new AquaShapeTable(points);
+
+            for (int i = 0; i < points; i++) {
+                double fraction = points == 1 ? 0 : i / (double) (points - 1);
+                table.x[i] = fraction;
+                table.y[i] = fraction;
+                table.z[i] = fraction;
+            }
+
+            return table;
+        });
+    }
+
+    /* Points on a helix of radius 1 that rises from 0 to 1 over the given amount of turns. */
+    @NotNull
+    static AquaShapeTable helix(int pointsPerTurn, int turns) {
+        return helixes.computeIfAbsent(((long) pointsPerTurn << 32) | turns, key -> {
+            AquaShapeTable circle = circle(pointsPerTurn);
+            int points = pointsPerTurn * turns + 1;
+            AquaShapeTable table = new AquaShapeTable(points);
+
+            for (int i = 0; i < points; i++) {
+                table.x[i] = circle.x[i % pointsPerTurn];
+                table.y[i] = i / (double) (points - 1);
+                table.z[i] = circle.z[i % pointsPerTurn];
+            }
+
+            return table;
+        });
+    }
+
+    /* Points on the 12 edges of the cube of size 1 centered on the origin. */
+    @NotNull
+    static AquaShapeTable cuboid(int pointsPerEdge) {
+        return cuboids.computeIfAbsent(pointsPerEdge, key -> {
+            AquaShapeTable line = line(pointsPerEdge);
+            AquaShapeTable table = new AquaShapeTable(pointsPerEdge * 12);
+            int point = 0;
+
+            /* Every edge runs along one axis, at one of the four combinations of the other two. */
+            for (int axis = 0; axis < 3; axis++) {
+                for (int corner = 0; corner < 4; corner++) {
+                    double first = (corner & 1) - 0.5, second = (corner >> 1) - 0.5;
+
+                    for (int i = 0; i < pointsPerEdge; i++, point++) {
+                        double along = line.x[i] - 0.5;
+
+                        table.x[point] = axis == 0 ? along : first;
+                        table.y[point] = axis == 1 ? along : axis == 0 ? first : second;
+                        table.z[point] = axis == 2 ? along : second;
+                    }
+                }
+            }
+
+            return table;
+        });
+    }
+}
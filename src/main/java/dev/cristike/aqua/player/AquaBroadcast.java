@@ -0,0 +1,202 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.player;
+
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A broadcast of one or more messages that is delivered with a single call
+ * per player and that can be spread over multiple ticks.
+ * The message is built once and shared by all the recipients.
+ * */
+public class AquaBroadcast {
+    private final String[] lines;
+    private Collection<? extends Player> recipients;
+    private boolean byWorld;
+    private long budget = Long.MAX_VALUE;
+    private int maxPerTick = Integer.MAX_VALUE;
+
+    private AquaBroadcast(@NotNull String[] lines) {
+        this.lines = lines;
+    }
+
+    /**
+     * Creates a broadcast of the given messages.
+     *
+     * @param messages the messages
+     *
+     * @return the broadcast
+     * */
+    @NotNull
+    public static AquaBroadcast of(@NotNull List<String> messages) {
+        return new AquaBroadcast(messages.toArray(String[]::new));
+    }
+
+    /**
+     * Creates a broadcast of the given messages.
+     *
+     * @param messages the messages
+     *
+     * @return the broadcast
+     * */
+    @NotNull
+    public static AquaBroadcast of(@NotNull String... messages) {
+        return new AquaBroadcast(messages.clone());
+    }
+
+    /**
+     * Sets the players that receive the broadcast.
+     * By default, all the online players receive it.
+     *
+     * @param recipients the players
+     *
+     * @return this broadcast
+     * */
+    @NotNull
+    public AquaBroadcast recipients(@NotNull Collection<? extends Player> recipients) {
+        this.recipients = recipients;
+        return this;
+    }
+
+    /**
+     * Delivers the broadcast world by world, so that the players
+     * in the same world receive it in the same tick whenever possible.
+     *
+     * @return this broadcast
+     * */
+    @NotNull
+    public AquaBroadcast byWorld() {
+        this.byWorld = true;
+        return this;
+    }
+
+    /**
+     * Sets the amount of time the broadcast may spend on a tick.
+     * The players that do not fit in the budget receive it in the next ticks.
+     *
+     * @param budget the budget in milliseconds
+     *
+     * @return this broadcast
+     * */
+    @NotNull
+    public AquaBroadcast budget(double budget) {
+        if (budget <= 0) throw new IllegalArgumentException("The budget must be positive.");
+
+        this.budget = (long) (budget * TimeUnit.MILLISECONDS.toNanos(1));
+        return this;
+    }
+
+    /**
+     * Sets the maximum amount of players that receive the broadcast in a tick.
+     * The other players receive it in the next ticks.
+     *
+     * @param maxPerTick the amount of players
+     *
+     * @return this broadcast
+     * */
+    @NotNull
+    public AquaBroadcast maxPerTick(int maxPerTick) {
+        if (maxPerTick <= 0) throw new IllegalArgumentException("The amount of players must be positive.");
+
+        this.maxPerTick = maxPerTick;
+        return this;
+    }
+
+    /**
+     * Sends the broadcast. The recipients are taken when this method is called,
+     * and the players that leave before their turn are skipped.
+     * When called on the main thread, the first part is delivered immediately.
+     *
+     * @return the future of the report, which completes when all the recipients were handled
+     * */
+    @NotNull
+    public CompletableFuture<Report> send() {
+        List<Player> targets = new ArrayList<>(recipients == null ? Bukkit.getOnlinePlayers() : recipients);
+        if (byWorld) targets.sort(Comparator.comparing(target -> target.getWorld().getName()));
+
+        Delivery delivery = new Delivery(targets);
+        if (!Bukkit.isPrimaryThread() || !delivery.deliver())
+            AquaScheduler.runTaskTimer(delivery::tick, 1);
+
+        return delivery.future;
+    }
+
+    /**
+     * The outcome of a broadcast.
+     *
+     * @param recipients the amount of players that received the broadcast
+     * @param deliveredPerTick the amount of players that received the broadcast in each tick
+     * */
+    public record Report(int recipients, @NotNull List<Integer> deliveredPerTick) {}
+
+    private final class Delivery {
+        private final List<Player> targets;
+        private final List<Integer> deliveredPerTick = new ArrayList<>();
+        private final CompletableFuture<Report> future = new CompletableFuture<>();
+        private int next;
+        private int delivered;
+
+        private Delivery(@NotNull List<Player> targets) {
+            this.targets = targets;
+        }
+
+        /* Delivers the next part of the broadcast, returning whether it is complete. */
+        private boolean deliver() {
+            long deadline = System.nanoTime() + Math.min(budget, Long.MAX_VALUE / 2);
+            int count = 0;
+
+            while (next < targets.size() && count < maxPerTick) {
+                Player player = targets.get(next++);
+                if (!player.isOnline()) continue;
+
+                player.sendMessage(lines);
+                count++;
+
+                if (System.nanoTime() - deadline >= 0) break;
+            }
+
+            deliveredPerTick.add(count);
+            delivered += count;
+
+            if (next < targets.size()) return false;
+
+            future.complete(new Report(delivered, List.copyOf(deliveredPerTick)));
+            return true;
+        }
+
+        private void tick(@NotNull BukkitTask task) {
+            if (deliver()) task.cancel();
+        }
+    }
+}
@@ -29,12 +29,14 @@ import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 /**
  * A class that contains abstractions for various tasks targeting players.
+ * The methods that iterate players use plain loops, so they do not allocate
+ * besides the iterator of the online players and the results they return.
  * */
 public class AquaPlayer {
 
@@ -59,25 +61,35 @@ public class AquaPlayer {
     }
 
     /**
-     * Gets the offline player with the given name.
+     * Gets the offline player with the given name, ignoring the case.
+     * The lookup is done in an index of the players, which is populated
+     * asynchronously on the first call. Until then, the offline players
+     * of the server are searched.
      *
      * @param name the offline player's name
      * @return an optional that may contain the offline player
      * */
     public static Optional<OfflinePlayer> getOfflinePlayer(@NotNull String name) {
+        if (AquaPlayerIndex.isLoaded()) return Optional.ofNullable(AquaPlayerIndex.get(name));
+
         OfflinePlayer offlinePlayer = Arrays.stream(Bukkit.getOfflinePlayers())
-                .filter(target -> Objects.equals(target.getName(), name)).findFirst().orElse(null);
+                .filter(target -> name.equalsIgnoreCase(target.getName())).findFirst().orElse(null);
 
         return Optional.ofNullable(offlinePlayer);
     }
 
     /**
      * Gets the offline player with the given uuid.
+     * The lookup is done in an index of the players, which is populated
+     * asynchronously on the first call. Until then, the offline players
+     * of the server are searched.
      *
      * @param uuid the offline player's unique id
      * @return an optional that may contain the offline player
      * */
     public static Optional<OfflinePlayer> getOfflinePlayer(@NotNull UUID uuid) {
+        if (AquaPlayerIndex.isLoaded()) return Optional.ofNullable(AquaPlayerIndex.get(uuid));
+
         OfflinePlayer offlinePlayer = Arrays.stream(Bukkit.getOfflinePlayers())
                 .filter(target -> target.getUniqueId().equals(uuid)).findFirst().orElse(null);
 
@@ -91,7 +103,25 @@ public class AquaPlayer {
      * @return the list of players that met the condition
      * */
     public static List<Player> getPlayers(@NotNull Predicate<Player> predicate) {
-        return Bukkit.getOnlinePlayers().stream().filter(predicate).collect(Collectors.toList());
+        return getPlayers(predicate, new ArrayList<>());
+    }
+
+    /**
+     * Adds the online players that meet the given condition to the given collection.
+     * Unlike {@link #getPlayers(Predicate)}, this does not allocate
+     * when a collection is reused between calls.
+     *
+     * @param predicate the condition
+     * @param output the collection to which the players are added
+     * @param <C> the type of the collection
+     * @return the given collection
+     * */
+    public static <C extends Collection<? super Player>> C getPlayers(@NotNull Predicate<Player> predicate,
+                                                                      @NotNull C output) {
+        for (Player player : Bukkit.getOnlinePlayers())
+            if (predicate.test(player)) output.add(player);
+
+        return output;
     }
 
     /**
@@ -101,12 +131,36 @@ public class AquaPlayer {
      * @return an optional that may contain the unique id
      * */
     public static Optional<UUID> getPlayerUUID(@NotNull String name) {
-        if (isOnline(name))
-            return Optional.of(getPlayer(name).get().getUniqueId());
-        else if (getOfflinePlayer(name).isPresent())
-            return Optional.of(getOfflinePlayer(name).get().getUniqueId());
-        else
-            return Optional.empty();
+        Player player = Bukkit.getPlayerExact(name);
+        if (player != null) return Optional.of(player.getUniqueId());
+
+        return getOfflinePlayer(name).map(OfflinePlayer::getUniqueId);
+    }
+
+    /**
+     * Resolves the unique ids of the players with the given names asynchronously.
+     * The names are looked up in the players known by the tool, then in the user
+     * cache of the server. The results are remembered for later calls.
+     *
+     * @param names the player names
+     * @return the future of the unique ids by name, which does not contain the names that could not be resolved
+     * */
+    public static CompletableFuture<Map<String, UUID>> getPlayerUUIDs(@NotNull Collection<String> names) {
+        return AquaPlayerResolver.resolveUUIDs(names);
+    }
+
+    /**
+     * Resolves the names of the players with the given unique ids asynchronously.
+     * The unique ids are looked up in the players known by the tool, then in the user
+     * cache and the player data of the server. The results are remembered for later calls.
+     * The players only found in the player data are named on the main thread,
+     * so the future must not be waited for on the main thread.
+     *
+     * @param uuids the unique ids
+     * @return the future of the names by unique id, which does not contain the ids that could not be resolved
+     * */
+    public static CompletableFuture<Map<UUID, String>> getPlayerNames(@NotNull Collection<UUID> uuids) {
+        return AquaPlayerResolver.resolveNames(uuids);
     }
 
     /**
@@ -116,17 +170,17 @@ public class AquaPlayer {
      * @return whether the player is online or not.
      * */
     public static boolean isOnline(@NotNull UUID uuid) {
-        return Bukkit.getServer().getOnlinePlayers().stream().anyMatch(target -> target.getUniqueId().equals(uuid));
+        return Bukkit.getPlayer(uuid) != null;
     }
 
     /**
-     * Checks if the player with the given name is online.
+     * Checks if the player with the given name is online, ignoring the case.
      *
      * @param name the player name
      * @return whether the player is online or not.
      * */
     public static boolean isOnline(@NotNull String name) {
-        return Bukkit.getServer().getOnlinePlayers().stream().anyMatch(target -> target.getName().equals(name));
+        return Bukkit.getPlayerExact(name) != null;
     }
 
     /**
@@ -140,11 +194,27 @@ public class AquaPlayer {
 
     /**
      * Sends the messages to all online players.
+     * The messages are delivered with a single call per player.
      *
      * @param messages the list of messages
      * */
     public static void broadcastMessages(@NotNull List<String> messages) {
-        messages.forEach(AquaPlayer::broadcastMessage);
+        String[] lines = messages.toArray(String[]::new);
+        Bukkit.getOnlinePlayers().forEach(target -> target.sendMessage(lines));
+    }
+
+    /**
+     * Sends the messages to all online players, spreading the delivery
+     * over multiple ticks so that it does not take longer than
+     * the given budget on a tick.
+     *
+     * @param messages the list of messages
+     * @param budget the budget in milliseconds
+     *
+     * @return the future of the report of the broadcast
+     * */
+    public static CompletableFuture<AquaBroadcast.Report> broadcastMessages(@NotNull List<String> messages, double budget) {
+        return AquaBroadcast.of(messages).budget(budget).send();
     }
 
     /**
@@ -167,6 +237,23 @@ public class AquaPlayer {
         players.forEach(target -> target.teleport(location));
     }
 
+    /**
+     * Teleports all the players in the given list to the target location,
+     * spreading the teleports over multiple ticks. The chunks around the
+     * location are loaded before the first player is teleported.
+     *
+     * @param players the player list
+     * @param location the location
+     * @param maxPerTick the maximum amount of players teleported in a tick
+     *
+     * @return the future of the amount of players that were teleported
+     * */
+    public static CompletableFuture<Integer> teleport(@NotNull Collection<Player> players,
+                                                      @NotNull Location location,
+                                                      int maxPerTick) {
+        return AquaTeleport.of(players, location).maxPerTick(maxPerTick).start();
+    }
+
     /***
      * Executes the given action for all the online players
      *
@@ -196,7 +283,7 @@ public class AquaPlayer {
      * */
     public static void forEachIf(@NotNull Predicate<Player> predicate,
                                  @NotNull Consumer<Player> consumer) {
-        Bukkit.getOnlinePlayers().stream().filter(predicate).forEach(consumer);
+        forEachIf(Bukkit.getOnlinePlayers(), predicate, consumer);
     }
 
 
@@ -208,9 +295,23 @@ public class AquaPlayer {
      * @param predicate the condition
      * @param consumer the action
      * */
-    public static void forEachIf(@NotNull Collection<Player> players,
+    public static void forEachIf(@NotNull Collection<? extends Player> players,
                                  @NotNull Predicate<Player> predicate,
                                  @NotNull Consumer<Player> consumer) {
-        players.stream().filter(predicate).forEach(consumer);
+        for (Player player : players)
+            if (predicate.test(player)) consumer.accept(player);
+    }
+
+    /**
+     * Visits the online players until the given visitor returns false.
+     *
+     * @param visitor the visitor, which returns whether to continue or not
+     * @return whether all the players were visited or not
+     * */
+    public static boolean visit(@NotNull Predicate<Player> visitor) {
+        for (Player player : Bukkit.getOnlinePlayers())
+            if (!visitor.test(player)) return false;
+
+        return true;
     }
 }
@@ -0,0 +1,286 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.player;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A named group of the online players that meet a condition.
+ * The group is not recomputed when it is used, but is updated when players
+ * join or quit and in the tick after one of the events the group depends on
+ * is called for a player. Iterating the group costs as much as its size and does
+ * not allocate.
+ * The groups must only be used on the main thread.
+ * */
+public class AquaPlayerGroup {
+    private static final Map<String, AquaPlayerGroup> groups = new HashMap<>();
+    private static final Map<Class<? extends PlayerEvent>, List<AquaPlayerGroup>> triggers = new HashMap<>();
+    private static final Map<UUID, Set<AquaPlayerGroup>> pending = new HashMap<>();
+    private static final Listener listener = new GroupListener();
+    private static boolean registered;
+
+    private final String name;
+    private final Predicate<Player> predicate;
+    private final Set<Class<? extends PlayerEvent>> events = new HashSet<>();
+    private final List<Player> members = new ArrayList<>();
+    private final Map<UUID, Integer> indexes = new HashMap<>();
+
+    private AquaPlayerGroup(@NotNull String name, @NotNull Predicate<Player> predicate) {
+        this.name = name;
+        this.predicate = predicate;
+    }
+
+    /**
+     * Registers a group of the online players that meet the given condition,
+     * replacing the group with the same name.
+     * Besides joining, the condition is checked again for a player
+     * whenever one of the given events is called for them. Since most events
+     * are called before their change is applied, the check is made in the
+     * next tick, once for all the events a player triggered in a tick.
+     *
+     * @param name the name of the group
+     * @param predicate the condition
+     * @param events the events that may change the result of the condition,
+     *               such as PlayerChangedWorldEvent
+     *
+     * @return the group
+     * */
+    @NotNull
+    @SafeVarargs
+    public static AquaPlayerGroup register(@NotNull String name,
+                                           @NotNull Predicate<Player> predicate,
+                                           @NotNull Class<? extends PlayerEvent>... events) {
+        if (!registered) {
+            Bukkit.getPluginManager().registerEvents(listener, AquaPlugin.getPlugin());
+            registered = true;
+        }
+
+        unregister(name);
+
+        AquaPlayerGroup group = new AquaPlayerGroup(name, predicate);
+        for (Class<? extends PlayerEvent> event : events)
+            group.events.add(event);
+
+        groups.put(name, group);
+
+        for (Class<? extends PlayerEvent> event : group.events) {
+            triggers.computeIfAbsent(event, target -> {
+                Bukkit.getPluginManager().registerEvent(target, listener, EventPriority.MONITOR, (ignored, called) -> {
+                    if (!(called instanceof PlayerEvent playerEvent) || !target.isInstance(called)) return;
+                    schedule(playerEvent.getPlayer().getUniqueId(), triggers.get(target));
+                }, AquaPlugin.getPlugin(), true);
+
+                return new ArrayList<>();
+            }).add(group);
+        }
+
+        Bukkit.getOnlinePlayers().forEach(group::refresh);
+        return group;
+    }
+
+    /**
+     * Gets the group with the given name.
+     *
+     * @param name the name of the group
+     *
+     * @return an optional that may contain the group
+     * */
+    @NotNull
+    public static Optional<AquaPlayerGroup> get(@NotNull String name) {
+        return Optional.ofNullable(groups.get(name));
+    }
+
+    /**
+     * Unregisters the group with the given name.
+     *
+     * @param name the name of the group
+     * */
+    public static void unregister(@NotNull String name) {
+        AquaPlayerGroup group = groups.remove(name);
+        if (group == null) return;
+
+        group.events.forEach(event -> triggers.get(event).remove(group));
+        group.members.clear();
+        group.indexes.clear();
+    }
+
+    /**
+     * Checks again whether the given player meets the condition of every group.
+     * This is meant for changes that are not signalled by a Bukkit event,
+     * such as permission changes made by a permission plugin.
+     *
+     * @param player the player
+     * */
+    public static void refreshAll(@NotNull Player player) {
+        refresh(player, groups.values());
+    }
+
+    /* Checks the player against the given groups in the next tick, after the event took effect. */
+    private static void schedule(@NotNull UUID uuid, @NotNull List<AquaPlayerGroup> targets) {
+        pending.computeIfAbsent(uuid, ignored -> new LinkedHashSet<>()).addAll(targets);
+
+        AquaScheduler.runCoalesced(new RefreshKey(uuid), () -> {
+            Set<AquaPlayerGroup> scheduled = pending.remove(uuid);
+            Player player = Bukkit.getPlayer(uuid);
+            if (scheduled == null || player == null) return;
+
+            /* The groups unregistered in the meantime are skipped. */
+            scheduled.removeIf(group -> groups.get(group.name) != group);
+            refresh(player, scheduled);
+        });
+    }
+
+    private static void refresh(@NotNull Player player, @NotNull Iterable<AquaPlayerGroup> targets) {
+        for (AquaPlayerGroup group : targets)
+            group.refresh(player);
+    }
+
+    /**
+     * Gets the name of the group.
+     *
+     * @return the name
+     * */
+    @NotNull
+    public String getName() { return name; }
+
+    /**
+     * Gets the amount of players in the group.
+     *
+     * @return the amount of players
+     * */
+    public int size() { return members.size(); }
+
+    /**
+     * Checks if the given player is in the group.
+     *
+     * @param player the player
+     *
+     * @return whether the player is in the group or not
+     * */
+    public boolean contains(@NotNull Player player) {
+        return indexes.containsKey(player.getUniqueId());
+    }
+
+    /**
+     * Gets the player at the given position in the group, which
+     * allows iterating the group with a plain loop.
+     *
+     * @param index the position
+     *
+     * @return the player
+     * */
+    @NotNull
+    public Player get(int index) {
+        return members.get(index);
+    }
+
+    /**
+     * Executes the given action for all the players in the group.
+     * The action must not change the group.
+     *
+     * @param consumer the action
+     * */
+    public void forEach(@NotNull Consumer<Player> consumer) {
+        for (int i = 0; i < members.size(); i++)
+            consumer.accept(members.get(i));
+    }
+
+    /**
+     * Gets a copy of the players in the group.
+     *
+     * @return the list of players
+     * */
+    @NotNull
+    public List<Player> getPlayers() {
+        return new ArrayList<>(members);
+    }
+
+    /**
+     * Checks again whether the given player meets the condition of the group.
+     *
+     * @param player the player
+     * */
+    public void refresh(@NotNull Player player) {
+        if (player.isOnline() && predicate.test(player)) add(player);
+        else remove(player);
+    }
+
+    private void add(@NotNull Player player) {
+        Integer index = indexes.putIfAbsent(player.getUniqueId(), members.size());
+
+        if (index == null) members.add(player);
+        else members.set(index, player);
+    }
+
+    /* The last member takes the place of the removed one, so that removing is O(1). */
+    private void remove(@NotNull Player player) {
+        Integer index = indexes.remove(player.getUniqueId());
+        if (index == null) return;
+
+        int last = members.size() - 1;
+        Player moved = members.remove(last);
+
+        if (index != last) {
+            members.set(index, moved);
+            indexes.put(moved.getUniqueId(), index);
+        }
+    }
+
+    private static final class GroupListener implements Listener {
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onJoin(@NotNull PlayerJoinEvent event) {
+            refreshAll(event.getPlayer());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onQuit(@NotNull PlayerQuitEvent event) {
+            Player player = event.getPlayer();
+            groups.values().forEach(group -> group.remove(player));
+        }
+    }
+
+    private record RefreshKey(@NotNull UUID uuid) {}
+}
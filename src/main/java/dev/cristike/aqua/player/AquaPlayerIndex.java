@@ -0,0 +1,143 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.player;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An index of the players that ever joined the server, by unique id
+ * and by case-insensitive name. The index is populated asynchronously
+ * the first time it is needed and is kept up to date by listeners.
+ * */
+final class AquaPlayerIndex implements Listener {
+    private static final Map<UUID, OfflinePlayer> byId = new ConcurrentHashMap<>();
+    private static final Map<String, OfflinePlayer> byName = new ConcurrentHashMap<>();
+    private static final Map<UUID, String> names = new ConcurrentHashMap<>();
+    private static final AtomicBoolean started = new AtomicBoolean();
+    private static volatile boolean loaded;
+
+    private AquaPlayerIndex() {}
+
+    /**
+     * Starts populating the index, if it was not already started.
+     * */
+    static void start() {
+        if (started.get() || !started.compareAndSet(false, true)) return;
+
+        /* The listener is registered first, so that no join is missed while the index is populated. */
+        if (Bukkit.isPrimaryThread()) load();
+        else AquaScheduler.runTask(AquaPlayerIndex::load);
+    }
+
+    /**
+     * Checks if the index was populated.
+     *
+     * @return whether the index can be queried or not
+     * */
+    static boolean isLoaded() {
+        start();
+        return loaded;
+    }
+
+    @Nullable
+    static OfflinePlayer get(@NotNull UUID uuid) {
+        return byId.get(uuid);
+    }
+
+    @Nullable
+    static OfflinePlayer get(@NotNull String name) {
+        return byName.get(name.toLowerCase(Locale.ROOT));
+    }
+
+    /* Gets the name the player had when it was indexed, without asking the server for it. */
+    @Nullable
+    static String getName(@NotNull UUID uuid) {
+        return names.get(uuid);
+    }
+
+    private static void load() {
+        Bukkit.getPluginManager().registerEvents(new AquaPlayerIndex(), AquaPlugin.getPlugin());
+
+        AquaScheduler.runTaskAsync(() -> {
+            for (OfflinePlayer offlinePlayer : Bukkit.getOfflinePlayers()) {
+                if (byId.putIfAbsent(offlinePlayer.getUniqueId(), offlinePlayer) != null) continue;
+
+                String name = offlinePlayer.getName();
+                if (name == null) continue;
+
+                names.putIfAbsent(offlinePlayer.getUniqueId(), name);
+                byName.putIfAbsent(name.toLowerCase(Locale.ROOT), offlinePlayer);
+            }
+
+            loaded = true;
+        });
+    }
+
+    private static void put(@NotNull OfflinePlayer offlinePlayer) {
+        String name = offlinePlayer.getName();
+        OfflinePlayer previous = byId.put(offlinePlayer.getUniqueId(), offlinePlayer);
+        String previousName = names.get(offlinePlayer.getUniqueId());
+
+        /* The previous name is dropped when the player changed it. */
+        if (previous != null && previousName != null && !previousName.equals(name))
+            byName.remove(previousName.toLowerCase(Locale.ROOT), previous);
+
+        if (name == null) return;
+
+        names.put(offlinePlayer.getUniqueId(), name);
+        byName.put(name.toLowerCase(Locale.ROOT), offlinePlayer);
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(@NotNull PlayerJoinEvent event) {
+        put(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(@NotNull PlayerQuitEvent event) {
+        UUID uuid = event.getPlayer().getUniqueId();
+
+        /* The player instance is replaced on the next tick, so that the index does not keep it alive. */
+        AquaScheduler.runTask(() -> {
+            OfflinePlayer offlinePlayer = Bukkit.getOfflinePlayer(uuid);
+            if (!(offlinePlayer instanceof Player)) put(offlinePlayer);
+        });
+    }
+}
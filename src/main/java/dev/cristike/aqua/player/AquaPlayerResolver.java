@@ -0,0 +1,306 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.player;
+
+import com.google.gson.stream.JsonReader;
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Resolves names and unique ids of players in bulk, off the main thread,
+ * from the user cache and the player data of the server.
+ * The results are memoized in bounded caches.
+ * */
+final class AquaPlayerResolver {
+    private static final int CAPACITY = 10_000;
+    private static final byte END = 0, STRING = 8, LIST = 9, COMPOUND = 10;
+    private static final Map<String, UUID> uuids = new Cache<>();
+    private static final Map<UUID, String> names = new Cache<>();
+    private static final Object lock = new Object();
+
+    private AquaPlayerResolver() {}
+
+    /**
+     * Resolves the unique ids of the players with the given names.
+     *
+     * @param targets the names
+     *
+     * @return the future of the unique ids by name, without the names that could not be resolved
+     * */
+    @NotNull
+    static CompletableFuture<Map<String, UUID>> resolveUUIDs(@NotNull Collection<String> targets) {
+        List<String> requested = List.copyOf(targets);
+        Path root = getServerRoot();
+
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, UUID> results = new HashMap<>();
+            Map<String, String> missing = new HashMap<>();
+
+            for (String name : requested) {
+                UUID uuid = findUUID(name);
+
+                if (uuid != null) results.put(name, uuid);
+                else missing.put(name.toLowerCase(Locale.ROOT), name);
+            }
+
+            if (!missing.isEmpty()) readUserCache(root, (name, uuid) -> {
+                String requestedName = missing.remove(name.toLowerCase(Locale.ROOT));
+                if (requestedName != null) results.put(requestedName, uuid);
+
+                return !missing.isEmpty();
+            });
+
+            return results;
+        }, AquaScheduler.getAsyncExecutor());
+    }
+
+    /**
+     * Resolves the names of the players with the given unique ids.
+     * The players that are only found in the player data of the server
+     * are named after the last name the server saved in their data.
+     *
+     * @param targets the unique ids
+     *
+     * @return the future of the names by unique id, without the ids that could not be resolved
+     * */
+    @NotNull
+    static CompletableFuture<Map<UUID, String>> resolveNames(@NotNull Collection<UUID> targets) {
+        List<UUID> requested = List.copyOf(targets);
+        Path root = getServerRoot();
+        Path playerData = getPlayerDataFolder(root);
+
+        return CompletableFuture.supplyAsync(() -> {
+            Map<UUID, String> results = new HashMap<>();
+            Map<UUID, UUID> missing = new HashMap<>();
+
+            for (UUID uuid : requested) {
+                String name = findName(uuid);
+
+                if (name != null) results.put(uuid, name);
+                else missing.put(uuid, uuid);
+            }
+
+            if (!missing.isEmpty()) readUserCache(root, (name, uuid) -> {
+                if (missing.remove(uuid) != null) results.put(uuid, name);
+                return !missing.isEmpty();
+            });
+
+            /* The players that expired from the user cache may still have player data. */
+            if (playerData != null) for (UUID uuid : missing.keySet()) {
+                Path path = playerData.resolve(uuid + ".dat");
+                if (!Files.isRegularFile(path)) continue;
+
+                String name = readLastKnownName(path);
+                if (name == null) continue;
+
+                remember(name, uuid);
+                results.put(uuid, name);
+            }
+
+            return results;
+        }, AquaScheduler.getAsyncExecutor());
+    }
+
+    @Nullable
+    private static UUID findUUID(@NotNull String name) {
+        synchronized (lock) {
+            UUID uuid = uuids.get(name.toLowerCase(Locale.ROOT));
+            if (uuid != null) return uuid;
+        }
+
+        OfflinePlayer offlinePlayer = AquaPlayerIndex.isLoaded() ? AquaPlayerIndex.get(name) : null;
+        return offlinePlayer != null ? offlinePlayer.getUniqueId() : null;
+    }
+
+    @Nullable
+    private static String findName(@NotNull UUID uuid) {
+        synchronized (lock) {
+            String name = names.get(uuid);
+            if (name != null) return name;
+        }
+
+        return AquaPlayerIndex.isLoaded() ? AquaPlayerIndex.getName(uuid) : null;
+    }
+
+    private static void remember(@NotNull String name, @NotNull UUID uuid) {
+        synchronized (lock) {
+            uuids.put(name.toLowerCase(Locale.ROOT), uuid);
+            names.put(uuid, name);
+        }
+    }
+
+    /*
+     * Streams the entries of the user cache of the server, remembering each of them,
+     * until the visitor returns false. The file is read with a buffered reader,
+     * so it is never loaded whole in memory.
+     * */
+    private static void readUserCache(@NotNull Path root, @NotNull Visitor visitor) {
+        Path path = root.resolve("usercache.json");
+        if (!Files.isRegularFile(path)) return;
+
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+             JsonReader json = new JsonReader(reader)) {
+            json.beginArray();
+
+            while (json.hasNext()) {
+                String name = null;
+                String uuid = null;
+
+                json.beginObject();
+                while (json.hasNext()) {
+                    switch (json.nextName()) {
+                        case "name" -> name = json.nextString();
+                        case "uuid" -> uuid = json.nextString();
+                        default -> json.skipValue();
+                    }
+                }
+                json.endObject();
+
+                if (name == null || uuid == null) continue;
+
+                UUID id = UUID.fromString(uuid);
+                remember(name, id);
+
+                if (!visitor.visit(name, id)) return;
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+            AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "Could not read the user cache.", e);
+        }
+    }
+
+    /*
+     * Reads the last name the server knew the player by from its player data.
+     * The data is walked tag by tag, and only the compound written by the server is entered,
+     * so the rest of the data is skipped instead of being loaded.
+     * */
+    @Nullable
+    private static String readLastKnownName(@NotNull Path path) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(path))))) {
+            if (input.readByte() != COMPOUND) return null;
+            input.skipNBytes(input.readUnsignedShort());
+
+            return findLastKnownName(input, false);
+        } catch (IOException e) {
+            AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "Could not read the player data " + path.getFileName() + ".", e);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static String findLastKnownName(@NotNull DataInputStream input, boolean bukkit) throws IOException {
+        for (byte type = input.readByte(); type != END; type = input.readByte()) {
+            String name = input.readUTF();
+
+            if (type == COMPOUND && !bukkit && name.equals("bukkit")) {
+                String found = findLastKnownName(input, true);
+                if (found != null) return found;
+            } else if (type == STRING && bukkit && name.equals("lastKnownName")) {
+                return input.readUTF();
+            } else {
+                skipTag(input, type);
+            }
+        }
+
+        return null;
+    }
+
+    private static void skipTag(@NotNull DataInputStream input, byte type) throws IOException {
+        switch (type) {
+            case 1 -> input.skipNBytes(1);
+            case 2 -> input.skipNBytes(2);
+            case 3, 5 -> input.skipNBytes(4);
+            case 4, 6 -> input.skipNBytes(8);
+            case 7 -> input.skipNBytes(input.readInt());
+            case STRING -> input.skipNBytes(input.readUnsignedShort());
+            case LIST -> {
+                byte element = input.readByte();
+                for (int i = input.readInt(); i > 0; i--)
+                    skipTag(input, element);
+            }
+            case COMPOUND -> {
+                for (byte child = input.readByte(); child != END; child = input.readByte()) {
+                    input.skipNBytes(input.readUnsignedShort());
+                    skipTag(input, child);
+                }
+            }
+            case 11 -> input.skipNBytes(input.readInt() * 4L);
+            case 12 -> input.skipNBytes(input.readInt() * 8L);
+            default -> throw new IOException("Unknown tag type " + type + ".");
+        }
+    }
+
+    /* Gets the folder of the server, which holds both the user cache and the worlds. */
+    @NotNull
+    private static Path getServerRoot() {
+        return Bukkit.getWorldContainer().toPath();
+    }
+
+    @Nullable
+    private static Path getPlayerDataFolder(@NotNull Path root) {
+        List<World> worlds = Bukkit.getWorlds();
+        if (worlds.isEmpty()) return null;
+
+        Path path = root.resolve(worlds.get(0).getName()).resolve("playerdata");
+        return Files.isDirectory(path) ? path : null;
+    }
+
+    private interface Visitor {
+        boolean visit(@NotNull String name, @NotNull UUID uuid);
+    }
+
+    /* A map that drops the least recently used entry when it exceeds its capacity. */
+    private static final class Cache<K, V> extends LinkedHashMap<K, V> {
+        private Cache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > CAPACITY;
+        }
+    }
+}
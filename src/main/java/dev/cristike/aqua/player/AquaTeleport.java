@@ -0,0 +1,232 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.player;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.scheduler.AquaScheduler;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A teleport of many players to the same location, which is spread over
+ * multiple ticks. The chunks around the destination are loaded first,
+ * a few at a time, and kept loaded until all the players arrived.
+ * */
+public class AquaTeleport {
+    /* The teleports that hold the ticket of each chunk, so that the ticket is removed by the last of them. */
+    private static final Map<ChunkKey, Integer> tickets = new HashMap<>();
+
+    private final List<Player> players;
+    private final Location location;
+    private int radius = 1;
+    private int maxPerTick = 10;
+    private long budget = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private AquaTeleport(@NotNull Collection<? extends Player> players, @NotNull Location location) {
+        if (location.getWorld() == null) throw new IllegalArgumentException("The location must have a world.");
+
+        this.players = new ArrayList<>(players);
+        this.location = location.clone();
+    }
+
+    /**
+     * Creates a teleport of the given players to the target location.
+     *
+     * @param players the players
+     * @param location the location
+     *
+     * @return the teleport
+     * */
+    @NotNull
+    public static AquaTeleport of(@NotNull Collection<? extends Player> players, @NotNull Location location) {
+        return new AquaTeleport(players, location);
+    }
+
+    /**
+     * Sets the radius, in chunks, of the area that is loaded
+     * around the destination. By default, the radius is 1.
+     *
+     * @param radius the radius in chunks
+     *
+     * @return this teleport
+     * */
+    @NotNull
+    public AquaTeleport preloadRadius(int radius) {
+        if (radius < 0) throw new IllegalArgumentException("The radius must not be negative.");
+
+        this.radius = radius;
+        return this;
+    }
+
+    /**
+     * Sets the maximum amount of players teleported in a tick.
+     * By default, 10 players are teleported in a tick.
+     *
+     * @param maxPerTick the amount of players
+     *
+     * @return this teleport
+     * */
+    @NotNull
+    public AquaTeleport maxPerTick(int maxPerTick) {
+        if (maxPerTick <= 0) throw new IllegalArgumentException("The amount of players must be positive.");
+
+        this.maxPerTick = maxPerTick;
+        return this;
+    }
+
+    /**
+     * Sets the amount of time the teleport may spend on a tick, both for
+     * loading chunks and for teleporting players. By default, the budget is 5 milliseconds.
+     *
+     * @param budget the budget in milliseconds
+     *
+     * @return this teleport
+     * */
+    @NotNull
+    public AquaTeleport budget(double budget) {
+        if (budget <= 0) throw new IllegalArgumentException("The budget must be positive.");
+
+        this.budget = (long) (budget * TimeUnit.MILLISECONDS.toNanos(1));
+        return this;
+    }
+
+    /**
+     * Starts the teleport on the next tick.
+     * The players that leave before their turn are skipped.
+     *
+     * @return the future of the amount of players that were teleported
+     * */
+    @NotNull
+    public CompletableFuture<Integer> start() {
+        Progress progress = new Progress();
+        AquaScheduler.runTaskTimer(progress::tick, 1);
+
+        return progress.future;
+    }
+
+    private final class Progress {
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+        private final World world = location.getWorld();
+        private final int centerX = location.getBlockX() >> 4;
+        private final int centerZ = location.getBlockZ() >> 4;
+        private final int side = radius * 2 + 1;
+        private final boolean[] ticketed = new boolean[side * side];
+
+        private int chunk;
+        private int player;
+        private int teleported;
+
+        private void tick(@NotNull BukkitTask task) {
+            long deadline = System.nanoTime() + budget;
+
+            try {
+                /*
+                 * Stage one: the chunks are loaded and held by a ticket until the teleport ends.
+                 * Only the tickets added by teleports are removed later, since the plugin may already hold others.
+                 * */
+                while (chunk < side * side) {
+                    int x = centerX + chunk % side - radius;
+                    int z = centerZ + chunk / side - radius;
+
+                    ticketed[chunk++] = acquire(world, x, z);
+                    if (System.nanoTime() - deadline >= 0) return;
+                }
+
+                /* Stage two: the players are teleported in batches. */
+                int count = 0;
+                while (player < players.size() && count < maxPerTick) {
+                    Player target = players.get(player++);
+                    if (!target.isOnline()) continue;
+
+                    if (target.teleport(location)) teleported++;
+                    count++;
+
+                    if (System.nanoTime() - deadline >= 0) return;
+                }
+
+                if (player < players.size()) return;
+            } catch (Throwable throwable) {
+                finish(task);
+                future.completeExceptionally(throwable);
+                return;
+            }
+
+            finish(task);
+            future.complete(teleported);
+        }
+
+        private void finish(@NotNull BukkitTask task) {
+            task.cancel();
+
+            for (int i = 0; i < chunk; i++) {
+                if (ticketed[i]) release(world, centerX + i % side - radius, centerZ + i / side - radius);
+            }
+        }
+    }
+
+    /* Adds the ticket of the chunk for a teleport, returning whether the teleport holds it. */
+    private static boolean acquire(@NotNull World world, int x, int z) {
+        ChunkKey key = new ChunkKey(world.getUID(), x, z);
+
+        Integer count = tickets.get(key);
+        if (count != null) {
+            tickets.put(key, count + 1);
+            return true;
+        }
+
+        if (!world.addPluginChunkTicket(x, z, AquaPlugin.getPlugin())) return false;
+
+        tickets.put(key, 1);
+        return true;
+    }
+
+    /* Removes the ticket of the chunk once no teleport holds it anymore. */
+    private static void release(@NotNull World world, int x, int z) {
+        ChunkKey key = new ChunkKey(world.getUID(), x, z);
+
+        Integer count = tickets.get(key);
+        if (count == null) return;
+
+        if (count > 1) {
+            tickets.put(key, count - 1);
+            return;
+        }
+
+        tickets.remove(key);
+        world.removePluginChunkTicket(x, z, AquaPlugin.getPlugin());
+    }
+
+    private record ChunkKey(@NotNull UUID world, int x, int z) {}
+}
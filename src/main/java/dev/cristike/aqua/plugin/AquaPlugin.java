@@ -29,12 +29,44 @@ import org.jetbrains.annotations.NotNull;
  * A class that contains an abstraction of getting the hosting plugin.
  * */
 public class AquaPlugin {
+    private static volatile JavaPlugin plugin;
 
     /**
      * Gets the instance of the plugin that hosts the tool.
+     * The plugin is resolved once and cached afterwards. The tool is shaded
+     * into the hosting plugin, so the cache belongs to its class loader and
+     * is discarded together with it when the plugin is reloaded.
+     *
+     * @return the hosting plugin
      * */
     @NotNull
     public static JavaPlugin getPlugin() {
-        return JavaPlugin.getProvidingPlugin(AquaPlugin.class);
+        JavaPlugin cached = plugin;
+        if (cached != null) return cached;
+
+        cached = JavaPlugin.getProvidingPlugin(AquaPlugin.class);
+        plugin = cached;
+
+        return cached;
+    }
+
+    /**
+     * Sets the instance of the plugin that hosts the tool, so that it
+     * is not resolved from the class loader. This is best done
+     * at the beginning of the onEnable method of the plugin.
+     *
+     * @param plugin the hosting plugin
+     * */
+    public static void init(@NotNull JavaPlugin plugin) {
+        AquaPlugin.plugin = plugin;
+    }
+
+    /**
+     * Clears the cached instance of the hosting plugin, so that it is
+     * resolved again on the next call. This is best done at the end
+     * of the onDisable method of the plugin.
+     * */
+    public static void reset() {
+        plugin = null;
     }
 }
@@ -0,0 +1,242 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * An executor that can replace the async scheduler of the server
+ * for the asynchronous actions of the tool.
+ * Unlike the async scheduler, the backends are bounded and
+ * provide metrics about their load.
+ * */
+public class AquaAsyncBackend implements Executor {
+    private final ExecutorService executor;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+
+    private AquaAsyncBackend(@NotNull ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Creates a backend that uses a work-stealing pool with
+     * the given amount of threads.
+     *
+     * @param parallelism the amount of threads
+     *
+     * @return the backend
+     * */
+    @NotNull
+    public static AquaAsyncBackend workStealing(int parallelism) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return new AquaAsyncBackend(new ForkJoinPool(parallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("Aqua Async Worker #" + counter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }, null, true));
+    }
+
+    /**
+     * Creates a backend that uses a fixed amount of threads and a queue
+     * with the given capacity.
+     * When the queue is full, the threads that submit actions wait for space
+     * in the queue. The main thread is never blocked, and its actions overflow
+     * to the async scheduler of the server instead. The threads of the backend
+     * are never blocked either, and run their own actions instead, so that
+     * continuations submitted from the backend cannot deadlock it.
+     *
+     * @param threads the amount of threads
+     * @param capacity the capacity of the queue
+     *
+     * @return the backend
+     * */
+    @NotNull
+    public static AquaAsyncBackend fixed(int threads, int capacity) {
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(capacity);
+
+        return new AquaAsyncBackend(new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+                threadFactory(queue), (runnable, pool) -> {
+            if (pool.isShutdown()) throw new RejectedExecutionException("The backend was shut down.");
+
+            if (Thread.currentThread() instanceof Worker worker && worker.queue == queue) {
+                runnable.run();
+                return;
+            }
+
+            if (Bukkit.isPrimaryThread()) {
+                AquaScheduler.getScheduler().runTaskAsynchronously(AquaPlugin.getPlugin(), runnable);
+                return;
+            }
+
+            try {
+                queue.put(runnable);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+        }));
+    }
+
+    /**
+     * Creates a backend that starts a virtual thread for each action.
+     * This is the best fit for blocking I/O, but it requires a runtime
+     * that supports virtual threads.
+     *
+     * @return the backend
+     *
+     * @throws UnsupportedOperationException if the runtime does not support virtual threads
+     * */
+    @NotNull
+    public static AquaAsyncBackend virtualThreads() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return new AquaAsyncBackend((ExecutorService) method.invoke(null));
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("The runtime does not support virtual threads.", e);
+        }
+    }
+
+    /**
+     * Checks if the runtime supports virtual threads.
+     *
+     * @return whether virtual threads are supported or not
+     * */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Executes the given action on the backend.
+     *
+     * @param runnable the action
+     * */
+    @Override
+    public void execute(@NotNull Runnable runnable) {
+        queued.incrementAndGet();
+
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+
+                try {
+                    runnable.run();
+                } catch (Throwable throwable) {
+                    AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "An async action threw an exception.", throwable);
+                } finally {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the amount of actions waiting to be executed.
+     *
+     * @return the queue depth
+     * */
+    public int getQueueSize() {
+        return queued.get();
+    }
+
+    /**
+     * Gets the amount of actions that are currently executing,
+     * which is the amount of busy threads.
+     *
+     * @return the amount of active threads
+     * */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * Gets the amount of actions executed since the backend was created.
+     *
+     * @return the amount of actions
+     * */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * Stops the backend from accepting new actions.
+     * The actions that were already submitted are still executed.
+     * */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @NotNull
+    private static ThreadFactory threadFactory(@NotNull BlockingQueue<Runnable> queue) {
+        AtomicInteger counter = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Worker(runnable, "Aqua Async Worker #" + counter.incrementAndGet(), queue);
+            thread.setDaemon(true);
+
+            return thread;
+        };
+    }
+
+    /* A thread of a fixed backend, which knows the queue of its backend. */
+    private static final class Worker extends Thread {
+        private final BlockingQueue<Runnable> queue;
+
+        private Worker(@NotNull Runnable runnable, @NotNull String name, @NotNull BlockingQueue<Runnable> queue) {
+            super(runnable, name);
+            this.queue = queue;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A wrapper of a CompletableFuture that makes it easy to chain actions
+ * that alternate between the main thread and other threads.
+ *
+ * @param <T> the type of the result
+ * */
+public class AquaFuture<T> {
+    private final CompletableFuture<T> future;
+
+    private AquaFuture(@NotNull CompletableFuture<T> future) {
+        this.future = future;
+    }
+
+    /**
+     * Wraps the given CompletableFuture.
+     *
+     * @param future the future
+     * @param <T> the type of the result
+     *
+     * @return the wrapping AquaFuture
+     * */
+    @NotNull
+    public static <T> AquaFuture<T> of(@NotNull CompletableFuture<T> future) {
+        return new AquaFuture<>(future);
+    }
+
+    /**
+     * Computes the result of the given supplier asynchronously.
+     *
+     * @param supplier the supplier
+     * @param <T> the type of the result
+     *
+     * @return the future of the result
+     * */
+    @NotNull
+    public static <T> AquaFuture<T> supplyAsync(@NotNull Supplier<T> supplier) {
+        return of(CompletableFuture.supplyAsync(supplier, AquaScheduler.getAsyncExecutor()));
+    }
+
+    /**
+     * Computes the result of the given supplier on the main thread.
+     *
+     * @param supplier the supplier
+     * @param <T> the type of the result
+     *
+     * @return the future of the result
+     * */
+    @NotNull
+    public static <T> AquaFuture<T> supplySync(@NotNull Supplier<T> supplier) {
+        return of(CompletableFuture.supplyAsync(supplier, AquaScheduler.getMainThreadExecutor()));
+    }
+
+    /**
+     * Combines the given futures into one that completes when all of them complete.
+     * If any of them completes exceptionally, the combined future does so as well.
+     *
+     * @param futures the futures
+     * @param <T> the type of the results
+     *
+     * @return the future of the results, in the order of the given futures
+     * */
+    @NotNull
+    public static <T> AquaFuture<List<T>> allOf(@NotNull Collection<AquaFuture<T>> futures) {
+        List<CompletableFuture<T>> targets = new ArrayList<>(futures.size());
+        futures.forEach(target -> targets.add(target.future));
+
+        return of(CompletableFuture.allOf(targets.toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+            List<T> results = new ArrayList<>(targets.size());
+            targets.forEach(target -> results.add(target.join()));
+
+            return results;
+        }));
+    }
+
+    /**
+     * Transforms the result on the main thread.
+     *
+     * @param function the transformation
+     * @param <R> the type of the new result
+     *
+     * @return the future of the new result
+     * */
+    @NotNull
+    public <R> AquaFuture<R> thenSync(@NotNull Function<? super T, ? extends R> function) {
+        return of(future.thenApplyAsync(function, AquaScheduler.getMainThreadExecutor()));
+    }
+
+    /**
+     * Transforms the result asynchronously.
+     *
+     * @param function the transformation
+     * @param <R> the type of the new result
+     *
+     * @return the future of the new result
+     * */
+    @NotNull
+    public <R> AquaFuture<R> thenAsync(@NotNull Function<? super T, ? extends R> function) {
+        return of(future.thenApplyAsync(function, AquaScheduler.getAsyncExecutor()));
+    }
+
+    /**
+     * Executes the given action with the result on the main thread.
+     *
+     * @param consumer the action
+     *
+     * @return the future of the action
+     * */
+    @NotNull
+    public AquaFuture<Void> acceptSync(@NotNull Consumer<? super T> consumer) {
+        return of(future.thenAcceptAsync(consumer, AquaScheduler.getMainThreadExecutor()));
+    }
+
+    /**
+     * Executes the given action with the result asynchronously.
+     *
+     * @param consumer the action
+     *
+     * @return the future of the action
+     * */
+    @NotNull
+    public AquaFuture<Void> acceptAsync(@NotNull Consumer<? super T> consumer) {
+        return of(future.thenAcceptAsync(consumer, AquaScheduler.getAsyncExecutor()));
+    }
+
+    /**
+     * Executes the given action on the main thread if the future completes exceptionally.
+     *
+     * @param consumer the action
+     *
+     * @return the future of the action
+     * */
+    @NotNull
+    public AquaFuture<T> onErrorSync(@NotNull Consumer<Throwable> consumer) {
+        return of(future.whenCompleteAsync((result, throwable) -> {
+            if (throwable != null) consumer.accept(throwable);
+        }, AquaScheduler.getMainThreadExecutor()));
+    }
+
+    /**
+     * Gets the wrapped CompletableFuture.
+     *
+     * @return the future
+     * */
+    @NotNull
+    public CompletableFuture<T> toCompletableFuture() {
+        return future;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import dev.cristike.aqua.server.AquaServer;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * A class that measures the actions submitted through the {@link AquaScheduler}.
+ * For every label, it records the execution time, the time the actions waited
+ * before starting and the amount of actions that exceeded the task budget.
+ * The instrumentation is disabled by default, in which case the actions
+ * are not wrapped at all.
+ * */
+public class AquaInstrumentation {
+    private static final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static volatile boolean enabled;
+    private static volatile long budget = 5 * NANOS_PER_MILLI;
+    private static BukkitTask report;
+
+    /**
+     * Checks if the instrumentation is enabled.
+     *
+     * @return whether the instrumentation is enabled or not
+     * */
+    public static boolean isEnabled() { return enabled; }
+
+    /**
+     * Enables or disables the instrumentation.
+     * Only the actions submitted while it is enabled are measured.
+     *
+     * @param enabled whether the instrumentation is enabled or not
+     * */
+    public static void setEnabled(boolean enabled) { AquaInstrumentation.enabled = enabled; }
+
+    /**
+     * Sets the budget of a single action. The actions that take longer
+     * are counted as overruns.
+     *
+     * @param budget the budget in milliseconds
+     * */
+    public static void setTaskBudget(double budget) {
+        if (budget <= 0) throw new IllegalArgumentException("The budget must be positive.");
+        AquaInstrumentation.budget = (long) (budget * NANOS_PER_MILLI);
+    }
+
+    /**
+     * Attaches an explicit label to the given action. Without a label,
+     * the actions are labelled with the class that created them.
+     *
+     * @param label the label
+     * @param runnable the action
+     *
+     * @return the labelled action
+     * */
+    @NotNull
+    public static Runnable label(@NotNull String label, @NotNull Runnable runnable) {
+        return new Labelled(label, runnable);
+    }
+
+    /**
+     * Gets the measurements of every label, sorted by the total execution time.
+     *
+     * @return the list of measurements
+     * */
+    @NotNull
+    public static List<Snapshot> snapshot() {
+        List<Snapshot> snapshots = new ArrayList<>(stats.size());
+        stats.forEach((label, target) -> snapshots.add(target.snapshot(label)));
+        snapshots.sort(Comparator.comparingDouble((Snapshot target) -> target.count() * target.meanTime()).reversed());
+
+        return snapshots;
+    }
+
+    /**
+     * Removes all the measurements.
+     * */
+    public static void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Periodically sends a report of the measurements to the console.
+     *
+     * @param period the period in ticks
+     * */
+    public static void startReport(long period) {
+        startReport(period, null);
+    }
+
+    /**
+     * Periodically writes a report of the measurements to the given file,
+     * or to the console if the file is null.
+     * Only one report runs at a time, so starting one stops the previous.
+     *
+     * @param period the period in ticks
+     * @param file the file or null
+     * */
+    public static synchronized void startReport(long period, @Nullable File file) {
+        stopReport();
+        report = AquaScheduler.getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), () -> writeReport(file), period, period);
+    }
+
+    /**
+     * Stops the periodic report.
+     * */
+    public static synchronized void stopReport() {
+        if (report != null) report.cancel();
+        report = null;
+    }
+
+    /**
+     * Wraps the given action so that it is measured,
+     * unless the instrumentation is disabled.
+     *
+     * @param runnable the action
+     * @param delayed whether the action is delayed or repeating,
+     *                in which case the time it waits is not measured
+     *
+     * @return the action to schedule
+     * */
+    @NotNull
+    static Runnable wrap(@NotNull Runnable runnable, boolean delayed) {
+        if (!enabled) return runnable;
+
+        Stats target = stats.computeIfAbsent(labelOf(runnable), label -> new Stats());
+        Runnable action = runnable instanceof Labelled labelled ? labelled.runnable : runnable;
+
+        if (delayed) return () -> target.measure(action);
+
+        long submitted = System.nanoTime();
+        return () -> {
+            target.latency.record(System.nanoTime() - submitted);
+            target.measure(action);
+        };
+    }
+
+    /**
+     * Wraps the given action so that it is measured,
+     * unless the instrumentation is disabled.
+     *
+     * @param consumer the action
+     *
+     * @return the action to schedule
+     * */
+    @NotNull
+    static Consumer<BukkitTask> wrap(@NotNull Consumer<BukkitTask> consumer) {
+        if (!enabled) return consumer;
+
+        Stats target = stats.computeIfAbsent(labelOf(consumer), label -> new Stats());
+        return task -> target.measure(() -> consumer.accept(task));
+    }
+
+    /* Lambdas are named after the class that declares them, followed by "$$Lambda". */
+    @NotNull
+    private static String labelOf(@NotNull Object action) {
+        if (action instanceof Labelled labelled) return labelled.label;
+
+        String name = action.getClass().getName();
+        int index = name.indexOf("$$Lambda");
+
+        return index == -1 ? name : name.substring(0, index);
+    }
+
+    private static void writeReport(@Nullable File file) {
+        List<String> lines = new ArrayList<>();
+        lines.add("Aqua scheduler report (" + LocalDateTime.now() + ")");
+
+        for (Snapshot snapshot : snapshot())
+            lines.add(String.format("%s: count=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms wait-p99=%.3fms overruns=%d",
+                    snapshot.label(), snapshot.count(), snapshot.meanTime(), snapshot.p50Time(), snapshot.p99Time(),
+                    snapshot.maxTime(), snapshot.p99Latency(), snapshot.overruns()));
+
+        if (file == null) {
+            lines.forEach(AquaServer::sendConsoleMessage);
+            return;
+        }
+
+        try {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "Could not write the scheduler report.", e);
+        }
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) NANOS_PER_MILLI;
+    }
+
+    /**
+     * The measurements of a label.
+     *
+     * @param label the label
+     * @param count the amount of executions
+     * @param meanTime the mean execution time in milliseconds
+     * @param p50Time the median execution time in milliseconds
+     * @param p99Time the 99th percentile of the execution time in milliseconds
+     * @param maxTime the maximum execution time in milliseconds
+     * @param meanLatency the mean time between submitting and starting in milliseconds
+     * @param p99Latency the 99th percentile of the time between submitting and starting in milliseconds
+     * @param overruns the amount of executions that exceeded the task budget
+     * */
+    public record Snapshot(@NotNull String label,
+                           long count,
+                           double meanTime,
+                           double p50Time,
+                           double p99Time,
+                           double maxTime,
+                           double meanLatency,
+                           double p99Latency,
+                           long overruns) {}
+
+    private record Labelled(@NotNull String label, @NotNull Runnable runnable) implements Runnable {
+        @Override
+        public void run() {
+            runnable.run();
+        }
+    }
+
+    private static final class Stats {
+        private final AquaHistogram time = new AquaHistogram();
+        private final AquaHistogram latency = new AquaHistogram();
+        private final LongAdder overruns = new LongAdder();
+
+        private void measure(@NotNull Runnable runnable) {
+            long start = System.nanoTime();
+
+            try {
+                runnable.run();
+            } finally {
+                long elapsed = System.nanoTime() - start;
+
+                time.record(elapsed);
+                if (elapsed > budget) overruns.increment();
+            }
+        }
+
+        @NotNull
+        private Snapshot snapshot(@NotNull String label) {
+            return new Snapshot(label, time.getCount(),
+                    time.getMean() / NANOS_PER_MILLI,
+                    toMillis(time.getPercentile(50)),
+                    toMillis(time.getPercentile(99)),
+                    toMillis(time.getMax()),
+                    latency.getMean() / NANOS_PER_MILLI,
+                    toMillis(latency.getPercentile(99)),
+                    overruns.sum());
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Collapses the actions scheduled with the same key, so that redundant
+ * work never reaches the server scheduler. A key holds at most one action,
+ * coalesced or debounced, which is replaced atomically by the next one.
+ * All the keyed actions are executed on the main thread by a single task.
+ * */
+final class AquaKeyedTasks {
+    private static final Map<Object, Keyed> tasks = new ConcurrentHashMap<>();
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private AquaKeyedTasks() {}
+
+    /**
+     * Schedules the given action for the next tick, replacing the action
+     * that was already scheduled with the same key.
+     *
+     * @param key the key
+     * @param runnable the action
+     * */
+    static void coalesce(@NotNull Object key, @NotNull Runnable runnable) {
+        tasks.compute(key, (k, previous) -> new Keyed(runnable, 0));
+        start();
+    }
+
+    /**
+     * Schedules the given action after the given amount of ticks, replacing
+     * and restarting the action that was already scheduled with the same key.
+     *
+     * @param key the key
+     * @param delay the amount of ticks
+     * @param runnable the action
+     * */
+    static void debounce(@NotNull Object key, long delay, @NotNull Runnable runnable) {
+        long deadline = AquaTickClock.now() + Math.max(delay, 1);
+
+        tasks.compute(key, (k, previous) -> new Keyed(runnable, deadline));
+        start();
+    }
+
+    /**
+     * Cancels the action that was scheduled with the given key.
+     *
+     * @param key the key
+     *
+     * @return whether an action was cancelled or not
+     * */
+    static boolean cancel(@NotNull Object key) {
+        return tasks.remove(key) != null;
+    }
+
+    /* Starts the driver task if it is not already running. */
+    private static void start() {
+        if (running.get() || !running.compareAndSet(false, true)) return;
+        AquaScheduler.getScheduler().runTaskTimer(AquaPlugin.getPlugin(), AquaKeyedTasks::drain, 0, 1);
+    }
+
+    private static void drain(@NotNull BukkitTask driver) {
+        long now = AquaTickClock.now();
+
+        for (Map.Entry<Object, Keyed> entry : tasks.entrySet()) {
+            Keyed target = entry.getValue();
+
+            /* The action is only executed if it was not replaced in the meantime. */
+            if (target.deadline <= now && tasks.remove(entry.getKey(), target))
+                run(target.runnable);
+        }
+
+        if (!tasks.isEmpty()) return;
+
+        driver.cancel();
+        running.set(false);
+
+        if (!tasks.isEmpty()) start();
+    }
+
+    private static void run(@NotNull Runnable runnable) {
+        try {
+            runnable.run();
+        } catch (Throwable throwable) {
+            AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "A keyed task threw an exception.", throwable);
+        }
+    }
+
+    /*
+     * The single action scheduled with a key. Identity matters here, so that
+     * a replaced action is never removed by mistake.
+     * */
+    private static final class Keyed {
+        private final Runnable runnable;
+        private final long deadline;
+
+        private Keyed(@NotNull Runnable runnable, long deadline) {
+            this.runnable = runnable;
+            this.deadline = deadline;
+        }
+    }
+}
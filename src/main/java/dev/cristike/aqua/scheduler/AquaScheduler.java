@@ -27,14 +27,23 @@ import org.bukkit.Bukkit;
 import org.bukkit.scheduler.BukkitScheduler;
 import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
  * A class that contains abstractions for various tasks targeting
  * the server scheduler.
  * */
 public class AquaScheduler {
+    private static final AquaWorkQueue workQueue = new AquaWorkQueue(5);
+    private static final AquaTimingWheel timingWheel = new AquaTimingWheel();
+    private static final Executor mainThreadExecutor = new AquaMainThreadExecutor();
+    private static final Executor asyncExecutor = AquaScheduler::runTaskAsync;
+    private static volatile AquaAsyncBackend asyncBackend;
 
     /**
      * Gets the server scheduler.
@@ -44,6 +53,17 @@ public class AquaScheduler {
     @NotNull
     public static BukkitScheduler getScheduler() { return Bukkit.getScheduler(); }
 
+    /**
+     * Gets the amount of ticks that passed since the tool first needed
+     * to count them. The counter advances once per tick, from a task that
+     * runs with the other scheduled tasks at the start of the tick. The
+     * repeating tasks scheduled before the counter started may run before
+     * it advances, so they still see the value of the previous tick.
+     *
+     * @return the current tick
+     * */
+    public static long getCurrentTick() { return AquaTickClock.now(); }
+
     /**
      * Executes the given action on the main thread
      * for the hosting plugin of the tool.
@@ -51,17 +71,18 @@ public class AquaScheduler {
      * @param runnable the action
      * */
     public static void runTask(@NotNull Runnable runnable) {
-        getScheduler().runTask(AquaPlugin.getPlugin(), runnable);
+        getScheduler().runTask(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(runnable, false));
     }
 
     /**
      * Executes the given action asynchronously
      * for the hosting plugin of the tool.
+     * If an async backend is set, the action is executed by it.
      *
      * @param runnable the action
      * */
     public static void runTaskAsync(@NotNull Runnable runnable) {
-        getScheduler().runTaskAsynchronously(AquaPlugin.getPlugin(), runnable);
+        dispatchAsync(AquaInstrumentation.wrap(runnable, false));
     }
 
     /**
@@ -70,20 +91,103 @@ public class AquaScheduler {
      *
      * @param runnable the action
      * @param period the amount of ticks
+     *
+     * @return the BukkitTask created for the action
      * */
-    public static void runTaskLater(@NotNull Runnable runnable, long period) {
-        getScheduler().runTaskLater(AquaPlugin.getPlugin(), runnable, period);
+    @NotNull
+    public static BukkitTask runTaskLater(@NotNull Runnable runnable, long period) {
+        return getScheduler().runTaskLater(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(runnable, true), period);
     }
 
     /**
      * Executes the given action async after
      * the given amount of ticks.
+     * If an async backend is set, the action is executed by it.
      *
      * @param runnable the action
      * @param period the amount of ticks
+     *
+     * @return the BukkitTask created for the action
+     * */
+    @NotNull
+    public static BukkitTask runTaskLaterAsync(@NotNull Runnable runnable, long period) {
+        Runnable action = AquaInstrumentation.wrap(runnable, true);
+
+        if (asyncBackend != null)
+            return getScheduler().runTaskLater(AquaPlugin.getPlugin(), () -> dispatchAsync(action), period);
+
+        return getScheduler().runTaskLaterAsynchronously(AquaPlugin.getPlugin(), action, period);
+    }
+
+    /**
+     * Executes the given action after the given amount of ticks.
+     * Unlike {@link #runTaskLater(Runnable, long)}, the action is kept in a
+     * timing wheel shared by all the delayed actions of the tool, which makes
+     * scheduling and cancelling it O(1). This is preferable when scheduling
+     * a large amount of delayed actions, such as cooldowns.
+     *
+     * @param runnable the action
+     * @param delay the amount of ticks
+     *
+     * @return the handle of the action
+     * */
+    @NotNull
+    public static AquaTaskHandle scheduleTaskLater(@NotNull Runnable runnable, long delay) {
+        return timingWheel.schedule(AquaInstrumentation.wrap(runnable, true), delay, false);
+    }
+
+    /**
+     * Executes the given action async after the given amount of ticks.
+     * Unlike {@link #runTaskLaterAsync(Runnable, long)}, the action is kept in a
+     * timing wheel shared by all the delayed actions of the tool, which makes
+     * scheduling and cancelling it O(1). This is preferable when scheduling
+     * a large amount of delayed actions, such as cooldowns.
+     *
+     * @param runnable the action
+     * @param delay the amount of ticks
+     *
+     * @return the handle of the action
+     * */
+    @NotNull
+    public static AquaTaskHandle scheduleTaskLaterAsync(@NotNull Runnable runnable, long delay) {
+        return timingWheel.schedule(AquaInstrumentation.wrap(runnable, true), delay, true);
+    }
+
+    /**
+     * Executes the given action on the main thread in the next tick.
+     * If another action was scheduled with the same key in the meantime,
+     * only the latest one is executed, so that the action of a key runs
+     * at most once per tick.
+     *
+     * @param key the key
+     * @param runnable the action
+     * */
+    public static void runCoalesced(@NotNull Object key, @NotNull Runnable runnable) {
+        AquaKeyedTasks.coalesce(key, AquaInstrumentation.wrap(runnable, false));
+    }
+
+    /**
+     * Executes the given action on the main thread after the given amount of ticks.
+     * If another action is scheduled with the same key before the delay passes,
+     * it replaces this one and the delay starts again.
+     *
+     * @param key the key
+     * @param delay the amount of ticks
+     * @param runnable the action
      * */
-    public static void runTaskLaterAsync(@NotNull Runnable runnable, long period) {
-        getScheduler().runTaskLaterAsynchronously(AquaPlugin.getPlugin(), runnable, period);
+    public static void debounce(@NotNull Object key, long delay, @NotNull Runnable runnable) {
+        AquaKeyedTasks.debounce(key, delay, AquaInstrumentation.wrap(runnable, true));
+    }
+
+    /**
+     * Cancels the coalesced or debounced action scheduled with the given key.
+     *
+     * @param key the key
+     *
+     * @return whether an action was cancelled or not
+     * */
+    public static boolean cancelKeyed(@NotNull Object key) {
+        return AquaKeyedTasks.cancel(key);
     }
 
     /**
@@ -97,7 +201,7 @@ public class AquaScheduler {
      * */
     @NotNull
     public static BukkitTask runTaskTimer(@NotNull Runnable runnable, long period) {
-         return getScheduler().runTaskTimer(AquaPlugin.getPlugin(), runnable, 0, period);
+         return getScheduler().runTaskTimer(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(runnable, true), 0, period);
     }
 
     /**
@@ -108,7 +212,7 @@ public class AquaScheduler {
      * @param period the period
      * */
     public static void runTaskTimer(@NotNull Consumer<BukkitTask> consumer, long period) {
-        getScheduler().runTaskTimer(AquaPlugin.getPlugin(), consumer, 0, period);
+        getScheduler().runTaskTimer(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(consumer), 0, period);
     }
 
     /**
@@ -123,7 +227,7 @@ public class AquaScheduler {
      * */
     @NotNull
     public static BukkitTask runTaskTimer(@NotNull Runnable runnable, long delay, long period) {
-        return getScheduler().runTaskTimer(AquaPlugin.getPlugin(), runnable, delay, period);
+        return getScheduler().runTaskTimer(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(runnable, true), delay, period);
     }
 
     /**
@@ -135,7 +239,7 @@ public class AquaScheduler {
      * @param period the period
      * */
     public static void runTaskTimer(@NotNull Consumer<BukkitTask> consumer, long delay, long period) {
-        getScheduler().runTaskTimer(AquaPlugin.getPlugin(), consumer, delay, period);
+        getScheduler().runTaskTimer(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(consumer), delay, period);
     }
 
     /**
@@ -149,7 +253,7 @@ public class AquaScheduler {
      * */
     @NotNull
     public static BukkitTask runTaskTimerAsync(@NotNull Runnable runnable, long period) {
-        return getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), runnable, 0, period);
+        return getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(runnable, true), 0, period);
     }
 
     /**
@@ -160,7 +264,7 @@ public class AquaScheduler {
      * @param period the period
      * */
     public static void runTaskTimerAsync(@NotNull Consumer<BukkitTask> consumer, long period) {
-        getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), consumer, 0, period);
+        getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(consumer), 0, period);
     }
 
     /**
@@ -175,7 +279,7 @@ public class AquaScheduler {
      * */
     @NotNull
     public static BukkitTask runTaskTimerAsync(@NotNull Runnable runnable, long delay, long period) {
-        return getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), runnable, delay, period);
+        return getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(runnable, true), delay, period);
     }
 
     /**
@@ -187,6 +291,170 @@ public class AquaScheduler {
      * @param period the period
      * */
     public static void runTaskTimerAsync(@NotNull Consumer<BukkitTask> consumer, long delay, long period) {
-        getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), consumer, delay, period);
+        getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), AquaInstrumentation.wrap(consumer), delay, period);
+    }
+
+    /**
+     * Executes repeatedly the given action with gaps of a given period.
+     * All the shared timers with the same period and phase are executed
+     * by a single BukkitTask, which makes them far cheaper than regular timers.
+     *
+     * @param runnable the action
+     * @param period the period
+     *
+     * @return the handle of the timer
+     * */
+    @NotNull
+    public static AquaTaskHandle runSharedTimer(@NotNull Runnable runnable, long period) {
+        return AquaSharedTimers.subscribe(AquaInstrumentation.wrap(runnable, true), 0, period, false);
+    }
+
+    /**
+     * Executes repeatedly the given action with gaps of a given period
+     * after a given delay.
+     * All the shared timers with the same period and phase are executed
+     * by a single BukkitTask, which makes them far cheaper than regular timers.
+     *
+     * @param runnable the action
+     * @param delay the delay
+     * @param period the period
+     *
+     * @return the handle of the timer
+     * */
+    @NotNull
+    public static AquaTaskHandle runSharedTimer(@NotNull Runnable runnable, long delay, long period) {
+        return AquaSharedTimers.subscribe(AquaInstrumentation.wrap(runnable, true), delay, period, false);
+    }
+
+    /**
+     * Executes repeatedly the given action asynchronously with gaps of a given period.
+     * All the shared timers with the same period and phase are executed
+     * by a single BukkitTask, which makes them far cheaper than regular timers.
+     *
+     * @param runnable the action
+     * @param period the period
+     *
+     * @return the handle of the timer
+     * */
+    @NotNull
+    public static AquaTaskHandle runSharedTimerAsync(@NotNull Runnable runnable, long period) {
+        return AquaSharedTimers.subscribe(AquaInstrumentation.wrap(runnable, true), 0, period, true);
+    }
+
+    /**
+     * Executes repeatedly the given action asynchronously with gaps of a given period
+     * after a given delay.
+     * All the shared timers with the same period and phase are executed
+     * by a single BukkitTask, which makes them far cheaper than regular timers.
+     *
+     * @param runnable the action
+     * @param delay the delay
+     * @param period the period
+     *
+     * @return the handle of the timer
+     * */
+    @NotNull
+    public static AquaTaskHandle runSharedTimerAsync(@NotNull Runnable runnable, long delay, long period) {
+        return AquaSharedTimers.subscribe(AquaInstrumentation.wrap(runnable, true), delay, period, true);
+    }
+
+    /**
+     * Gets the work queue used by {@link #queueTask(Runnable)}.
+     * By default, the queue has a budget of 5 milliseconds per tick.
+     *
+     * @return the work queue
+     * */
+    @NotNull
+    public static AquaWorkQueue getWorkQueue() { return workQueue; }
+
+    /**
+     * Adds the given action to the work queue. The action is executed
+     * on the main thread, but only when the budget of the queue allows it,
+     * so that bursts of actions are spread over multiple ticks.
+     *
+     * @param runnable the action
+     * */
+    public static void queueTask(@NotNull Runnable runnable) {
+        workQueue.submit(AquaInstrumentation.wrap(runnable, false));
+    }
+
+    /**
+     * Gets the backend that executes the asynchronous actions of the tool.
+     *
+     * @return an optional that may contain the backend, which is empty
+     * when the async scheduler of the server is used
+     * */
+    @NotNull
+    public static Optional<AquaAsyncBackend> getAsyncBackend() { return Optional.ofNullable(asyncBackend); }
+
+    /**
+     * Sets the backend that executes the asynchronous actions of the tool.
+     * The previous backend, if any, is shut down after its queued actions complete.
+     * Setting the backend to null restores the async scheduler of the server,
+     * which should be done when the hosting plugin is disabled.
+     *
+     * @param backend the backend or null
+     * */
+    public static void setAsyncBackend(@Nullable AquaAsyncBackend backend) {
+        AquaAsyncBackend previous = asyncBackend;
+        asyncBackend = backend;
+
+        if (previous != null && previous != backend) previous.shutdown();
+    }
+
+    /**
+     * Gets an executor that runs actions on the main thread.
+     * Actions submitted from other threads in the same tick
+     * are executed together by a single task.
+     *
+     * @return the executor
+     * */
+    @NotNull
+    public static Executor getMainThreadExecutor() { return mainThreadExecutor; }
+
+    /**
+     * Gets an executor that runs actions asynchronously.
+     *
+     * @return the executor
+     * */
+    @NotNull
+    public static Executor getAsyncExecutor() { return asyncExecutor; }
+
+    /**
+     * Computes the result of the given supplier asynchronously.
+     * The returned future can be used to chain actions
+     * on the main thread or asynchronously.
+     *
+     * @param supplier the supplier
+     * @param <T> the type of the result
+     *
+     * @return the future of the result
+     * */
+    @NotNull
+    public static <T> AquaFuture<T> supplyAsync(@NotNull Supplier<T> supplier) {
+        return AquaFuture.supplyAsync(supplier);
+    }
+
+    /**
+     * Computes the result of the given supplier on the main thread.
+     * The returned future can be used to chain actions
+     * on the main thread or asynchronously.
+     *
+     * @param supplier the supplier
+     * @param <T> the type of the result
+     *
+     * @return the future of the result
+     * */
+    @NotNull
+    public static <T> AquaFuture<T> supplySync(@NotNull Supplier<T> supplier) {
+        return AquaFuture.supplySync(supplier);
+    }
+
+    /* Executes the given action on the async backend, or on the server's async scheduler if there is none. */
+    static void dispatchAsync(@NotNull Runnable runnable) {
+        AquaAsyncBackend backend = asyncBackend;
+
+        if (backend != null) backend.execute(runnable);
+        else getScheduler().runTaskAsynchronously(AquaPlugin.getPlugin(), runnable);
     }
 }
@@ -0,0 +1,138 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+
+/**
+ * Multiplexes timers with the same period and phase on a single
+ * BukkitTask, so that thousands of timers cost the server scheduler
+ * only as much as a handful of tasks.
+ * */
+final class AquaSharedTimers {
+    private static final Map<Key, Group> groups = new HashMap<>();
+
+    private AquaSharedTimers() {}
+
+    /**
+     * Subscribes the given action to the driver of its period and phase,
+     * creating the driver if needed.
+     *
+     * @param runnable the action
+     * @param delay the delay
+     * @param period the period
+     * @param async whether the action runs asynchronously
+     *
+     * @return the handle of the subscription
+     * */
+    @NotNull
+    static AquaTaskHandle subscribe(@NotNull Runnable runnable, long delay, long period, boolean async) {
+        if (period <= 0) throw new IllegalArgumentException("The period must be positive.");
+
+        long now = AquaTickClock.now();
+        long firstTick = now + Math.max(delay, 1);
+        Key key = new Key(period, firstTick % period, async);
+        Subscription subscription = new Subscription(runnable, firstTick);
+
+        synchronized (groups) {
+            groups.computeIfAbsent(key, target -> new Group(target, firstTick - now)).pending.add(subscription);
+        }
+
+        return subscription;
+    }
+
+    private record Key(long period, long phase, boolean async) {}
+
+    private static final class Subscription extends AquaTaskHandle {
+        private final Runnable runnable;
+        private final long firstTick;
+
+        private Subscription(@NotNull Runnable runnable, long firstTick) {
+            this.runnable = runnable;
+            this.firstTick = firstTick;
+        }
+    }
+
+    private static final class Group implements Runnable {
+        private final Key key;
+        private final Queue<Subscription> pending = new ConcurrentLinkedQueue<>();
+        private final List<Subscription> active = new ArrayList<>();
+        private final BukkitTask driver;
+
+        private Group(@NotNull Key key, long delay) {
+            this.key = key;
+            this.driver = key.async()
+                    ? AquaScheduler.getScheduler().runTaskTimerAsynchronously(AquaPlugin.getPlugin(), this, delay, key.period())
+                    : AquaScheduler.getScheduler().runTaskTimer(AquaPlugin.getPlugin(), this, delay, key.period());
+        }
+
+        @Override
+        public synchronized void run() {
+            long now = AquaTickClock.now();
+
+            Subscription subscription;
+            while ((subscription = pending.poll()) != null)
+                active.add(subscription);
+
+            for (int i = 0; i < active.size(); ) {
+                subscription = active.get(i);
+
+                /* Cancelled subscriptions are swapped with the last one and removed in O(1). */
+                if (subscription.isCancelled()) {
+                    int last = active.size() - 1;
+                    active.set(i, active.get(last));
+                    active.remove(last);
+                    continue;
+                }
+                i++;
+
+                if (subscription.firstTick > now) continue;
+
+                try {
+                    subscription.runnable.run();
+                } catch (Throwable throwable) {
+                    AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "A shared timer threw an exception.", throwable);
+                }
+            }
+
+            if (!active.isEmpty()) return;
+
+            synchronized (groups) {
+                if (!pending.isEmpty()) return;
+
+                groups.remove(key);
+                driver.cancel();
+            }
+        }
+    }
+}
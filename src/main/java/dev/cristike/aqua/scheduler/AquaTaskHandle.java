@@ -0,0 +1,55 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+/**
+ * A lightweight handle of an action scheduled by the tool
+ * that does not have a BukkitTask of its own.
+ * */
+public class AquaTaskHandle {
+    private volatile boolean cancelled;
+
+    AquaTaskHandle() {}
+
+    /**
+     * Cancels the action. If the action is currently running,
+     * the current execution is not interrupted.
+     * */
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        onCancel();
+    }
+
+    /**
+     * Checks if the action was cancelled.
+     *
+     * @return whether the action was cancelled or not
+     * */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /* Called once, when the handle is cancelled for the first time. */
+    void onCancel() {}
+}
@@ -0,0 +1,55 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A counter of the server ticks that passed since the tool
+ * first needed it. It is used to align shared tasks on the same ticks.
+ * */
+final class AquaTickClock {
+    private static final AtomicBoolean started = new AtomicBoolean();
+    private static volatile long tick;
+
+    private AquaTickClock() {}
+
+    /**
+     * Gets the current tick, starting the clock if it is not already running.
+     *
+     * @return the current tick
+     * */
+    static long now() {
+        if (!started.get() && started.compareAndSet(false, true))
+            AquaScheduler.getScheduler().runTaskTimer(AquaPlugin.getPlugin(), AquaTickClock::increment, 0, 1);
+
+        return tick;
+    }
+
+    @SuppressWarnings("NonAtomicOperationOnVolatileField")
+    private static void increment() {
+        tick++;
+    }
+}
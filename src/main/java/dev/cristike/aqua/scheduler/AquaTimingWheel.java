@@ -0,0 +1,201 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+/**
+ * A hierarchical timing wheel for delayed actions, driven by a single
+ * repeating task. Scheduling and cancelling an action are O(1),
+ * no matter how many actions are waiting.
+ * */
+final class AquaTimingWheel {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (BITS * LEVELS);
+
+    private final Bucket[][] wheel = new Bucket[LEVELS][SLOTS];
+    private final List<Timeout> expired = new ArrayList<>();
+
+    private long time;
+    private int size;
+    private boolean running;
+
+    AquaTimingWheel() {
+        for (Bucket[] level : wheel)
+            for (int i = 0; i < SLOTS; i++)
+                level[i] = new Bucket();
+    }
+
+    /**
+     * Schedules the given action after the given amount of ticks.
+     *
+     * @param runnable the action
+     * @param delay the amount of ticks
+     * @param async whether the action runs asynchronously
+     *
+     * @return the handle of the action
+     * */
+    @NotNull
+    synchronized AquaTaskHandle schedule(@NotNull Runnable runnable, long delay, boolean async) {
+        Timeout timeout = new Timeout(runnable, time + Math.max(delay, 1), async);
+        insert(timeout);
+        size++;
+
+        if (!running) {
+            running = true;
+            AquaScheduler.getScheduler().runTaskTimer(AquaPlugin.getPlugin(), this::tick, 1, 1);
+        }
+
+        return timeout;
+    }
+
+    /* Places the timeout in the bucket that matches its deadline. */
+    private void insert(@NotNull Timeout timeout) {
+        long delta = Math.min(timeout.deadline - time, SPAN - 1);
+        long position = time + Math.max(delta, 0);
+
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (BITS * (level + 1)))
+            level++;
+
+        wheel[level][(int) (position >>> (BITS * level)) & MASK].add(timeout);
+    }
+
+    /* Unlinks a cancelled timeout from its bucket. */
+    private synchronized void remove(@NotNull Timeout timeout) {
+        if (timeout.bucket == null) return;
+
+        timeout.bucket.remove(timeout);
+        size--;
+    }
+
+    /* Advances the wheel by one tick and executes the expired actions. */
+    private void tick(@NotNull BukkitTask driver) {
+        synchronized (this) {
+            time++;
+
+            /* When the lower level wraps around, the next bucket of the upper level is redistributed. */
+            for (int level = 1; level < LEVELS; level++) {
+                if ((time & ((1L << (BITS * level)) - 1)) != 0) break;
+                cascade(wheel[level][(int) (time >>> (BITS * level)) & MASK]);
+            }
+
+            Bucket bucket = wheel[0][(int) time & MASK];
+            for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll()) {
+                if (timeout.deadline > time) insert(timeout);
+                else {
+                    expired.add(timeout);
+                    size--;
+                }
+            }
+
+            if (size == 0) {
+                running = false;
+                driver.cancel();
+            }
+        }
+
+        for (Timeout timeout : expired) {
+            if (timeout.async) AquaScheduler.dispatchAsync(timeout::run);
+            else timeout.run();
+        }
+        expired.clear();
+    }
+
+    private void cascade(@NotNull Bucket bucket) {
+        for (Timeout timeout = bucket.poll(); timeout != null; timeout = bucket.poll())
+            insert(timeout);
+    }
+
+    private final class Timeout extends AquaTaskHandle {
+        private final Runnable runnable;
+        private final long deadline;
+        private final boolean async;
+
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        private Timeout(@NotNull Runnable runnable, long deadline, boolean async) {
+            this.runnable = runnable;
+            this.deadline = deadline;
+            this.async = async;
+        }
+
+        private void run() {
+            if (isCancelled()) return;
+
+            try {
+                runnable.run();
+            } catch (Throwable throwable) {
+                AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "A delayed task threw an exception.", throwable);
+            }
+        }
+
+        @Override
+        void onCancel() {
+            remove(this);
+        }
+    }
+
+    /* A doubly linked list of timeouts, so that any of them can be unlinked in O(1). */
+    private static final class Bucket {
+        private Timeout head;
+
+        private void add(@NotNull Timeout timeout) {
+            timeout.bucket = this;
+            timeout.previous = null;
+            timeout.next = head;
+
+            if (head != null) head.previous = timeout;
+            head = timeout;
+        }
+
+        private void remove(@NotNull Timeout timeout) {
+            if (timeout.previous != null) timeout.previous.next = timeout.next;
+            else head = timeout.next;
+
+            if (timeout.next != null) timeout.next.previous = timeout.previous;
+
+            timeout.bucket = null;
+            timeout.previous = null;
+            timeout.next = null;
+        }
+
+        private Timeout poll() {
+            Timeout timeout = head;
+            if (timeout != null) remove(timeout);
+
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *   Copyright (c) 2023 Cristike
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in all
+ *   copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *   IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *   FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *   AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *   LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *   OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *   SOFTWARE.
+ */
+
+package dev.cristike.aqua.scheduler;
+
+import dev.cristike.aqua.plugin.AquaPlugin;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * A queue of actions that are executed on the main thread
+ * within a time budget for each tick.
+ * The actions that do not fit in the budget of a tick are
+ * carried over to the next one.
+ * */
+public class AquaWorkQueue {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile long budget;
+
+    private volatile long lastTickTime;
+    private volatile int lastTickExecuted;
+    private volatile long totalExecuted;
+
+    /**
+     * Creates a work queue with the given budget for each tick.
+     *
+     * @param budget the budget in milliseconds
+     * */
+    public AquaWorkQueue(double budget) {
+        setBudget(budget);
+    }
+
+    /**
+     * Adds the given action to the queue. The action will be executed
+     * on the main thread as soon as the budget allows it.
+     * This method may be called from any thread.
+     *
+     * @param runnable the action
+     * */
+    public void submit(@NotNull Runnable runnable) {
+        tasks.add(runnable);
+        size.incrementAndGet();
+        start();
+    }
+
+    /**
+     * Sets the amount of time the queue may spend on a tick.
+     * At least one action is executed every tick, regardless of the budget.
+     *
+     * @param budget the budget in milliseconds
+     * */
+    public void setBudget(double budget) {
+        if (budget <= 0) throw new IllegalArgumentException("The budget must be positive.");
+        this.budget = (long) (budget * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    /**
+     * Gets the amount of time the queue may spend on a tick.
+     *
+     * @return the budget in milliseconds
+     * */
+    public double getBudget() {
+        return budget / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the amount of actions waiting to be executed.
+     *
+     * @return the queue depth
+     * */
+    public int getQueueSize() {
+        return size.get();
+    }
+
+    /**
+     * Gets the amount of time spent executing actions in the last tick
+     * in which the queue was not empty.
+     *
+     * @return the time in milliseconds
+     * */
+    public double getLastTickTime() {
+        return lastTickTime / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Gets the amount of actions executed in the last tick
+     * in which the queue was not empty.
+     *
+     * @return the amount of actions
+     * */
+    public int getLastTickExecuted() {
+        return lastTickExecuted;
+    }
+
+    /**
+     * Gets the amount of actions executed since the queue was created.
+     *
+     * @return the amount of actions
+     * */
+    public long getTotalExecuted() {
+        return totalExecuted;
+    }
+
+    /**
+     * Removes all the actions that are waiting to be executed.
+     * */
+    public void clear() {
+        while (tasks.poll() != null)
+            size.decrementAndGet();
+    }
+
+    /* Starts the driver task if it is not already running. */
+    private void start() {
+        if (running.get() || !running.compareAndSet(false, true)) return;
+        AquaScheduler.getScheduler().runTaskTimer(AquaPlugin.getPlugin(), this::drain, 0, 1);
+    }
+
+    /* Executes actions until the budget of the tick is spent or the queue is empty. */
+    private void drain(@NotNull BukkitTask driver) {
+        long start = System.nanoTime();
+        long deadline = start + budget;
+        int executed = 0;
+
+        Runnable runnable;
+        while ((runnable = tasks.poll()) != null) {
+            size.decrementAndGet();
+            executed++;
+
+            try {
+                runnable.run();
+            } catch (Throwable throwable) {
+                AquaPlugin.getPlugin().getLogger().log(Level.WARNING, "A queued task threw an exception.", throwable);
+            }
+
+            if (System.nanoTime() - deadline >= 0) break;
+        }
+
+        if (executed > 0) {
+            lastTickTime = System.nanoTime() - start;
+            lastTickExecuted = executed;
+            totalExecuted += executed;
+        }
+
+        if (size.get() == 0) stop(driver);
+    }
+
+    /* Stops the driver task, restarting it if an action was added in the meantime. */
+    private void stop(@NotNull BukkitTask driver) {
+        driver.cancel();
+        running.set(false);
+
+        if (size.get() > 0) start();
+    }
+}